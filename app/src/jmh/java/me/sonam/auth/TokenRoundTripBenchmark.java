@@ -0,0 +1,70 @@
+package me.sonam.auth;
+
+import me.sonam.auth.harness.InProcessMediator;
+import me.sonam.auth.harness.StubIssuer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full in-process POST /oauth2-token-mediator/token round trip against a {@link StubIssuer}.
+ * The calling WebClient runs in the same jvm, so -prof gc numbers include the client side allocations,
+ * compare runs against each other rather than reading them as absolute server cost.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TokenRoundTripBenchmark {
+
+    @Param({"true", "false"})
+    public String passthrough;
+
+    /**
+     * debug turns on the per request debug lines that remain, the lines that logged secrets and tokens at
+     * info were deleted rather than demoted so no level brings them back
+     */
+    @Param({"info", "debug"})
+    public String logLevel;
+
+    private StubIssuer stubIssuer;
+    private InProcessMediator mediator;
+    private WebClient webClient;
+    private URI tokenUri;
+
+    @Setup
+    public void setup() {
+        stubIssuer = new StubIssuer();
+        mediator = InProcessMediator.start(stubIssuer.rootUri(),
+                "--token-response.passthrough=" + passthrough,
+                "--logging.level.me.sonam.auth=" + logLevel).withClient();
+        webClient = WebClient.create();
+        tokenUri = UriComponentsBuilder.fromUriString(mediator.baseUri() + "/oauth2-token-mediator/token")
+                .queryParam("client_id", InProcessMediator.CLIENT_ID)
+                .queryParam("grant_type", "authorization_code")
+                .queryParam("redirect_uri", "http://127.0.0.1:8090/login/oauth2/code/articles-client-oidc")
+                .queryParam("code", "benchmark-code")
+                .build().encode().toUri();
+    }
+
+    @TearDown
+    public void tearDown() {
+        mediator.close();
+        stubIssuer.close();
+    }
+
+    @Benchmark
+    public byte[] token() {
+        return webClient.post().uri(tokenUri).retrieve().bodyToMono(byte[].class).block();
+    }
+}
@@ -0,0 +1,50 @@
+package me.sonam.auth.repo.entity;
+
+import me.sonam.auth.service.ClientSecretCipher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the client secret encryption done before the upsert in
+ * {@link me.sonam.auth.repo.ClientBatchRepository#upsert} and the decryption done on every token request
+ * by {@link Client#decryptClientSecret}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ClientBenchmark {
+    private static final String PASSWORD = "benchmark-password";
+    private static final String CLIENT_ID = "benchmark-client";
+    private static final String CLIENT_SECRET = "secret";
+
+    private ClientSecretCipher clientSecretCipher;
+    private Client encryptedClient;
+
+    @Setup
+    public void setup() {
+        clientSecretCipher = new ClientSecretCipher(PASSWORD, "benchmark-salt", ClientSecretCipher.DEFAULT_KEY_ID, Map.of());
+        encryptedClient = encrypt();
+    }
+
+    @Benchmark
+    public String decryptClientSecret() {
+        return encryptedClient.decryptClientSecret(clientSecretCipher).block();
+    }
+
+    @Benchmark
+    public Client saveEncryption() {
+        return encrypt();
+    }
+
+    private Client encrypt() {
+        return new Client(CLIENT_ID, CLIENT_SECRET).encryptClientSecret(clientSecretCipher).block();
+    }
+}
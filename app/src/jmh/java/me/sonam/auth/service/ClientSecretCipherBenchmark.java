@@ -0,0 +1,60 @@
+package me.sonam.auth.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.security.crypto.encrypt.Encryptors;
+import org.springframework.security.crypto.keygen.KeyGenerators;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Legacy per-row salt format against the AES-GCM envelope with the key derived once.  The legacy*
+ * methods are the baseline, they run a PBKDF2 derivation per call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ClientSecretCipherBenchmark {
+    private static final String PASSWORD = "benchmark-password";
+    private static final String CLIENT_ID = "benchmark-client";
+    private static final String CLIENT_SECRET = "secret";
+
+    private ClientSecretCipher clientSecretCipher;
+    private String salt;
+    private String legacyClientSecret;
+    private String envelope;
+
+    @Setup
+    public void setup() {
+        clientSecretCipher = new ClientSecretCipher(PASSWORD, "benchmark-salt", ClientSecretCipher.DEFAULT_KEY_ID, Map.of());
+        salt = KeyGenerators.string().generateKey();
+        legacyClientSecret = Encryptors.text(PASSWORD, salt).encrypt(CLIENT_SECRET);
+        envelope = clientSecretCipher.encrypt(CLIENT_ID, CLIENT_SECRET);
+    }
+
+    @Benchmark
+    public String legacyEncrypt() {
+        return Encryptors.text(PASSWORD, KeyGenerators.string().generateKey()).encrypt(CLIENT_SECRET);
+    }
+
+    @Benchmark
+    public String legacyDecrypt() {
+        return clientSecretCipher.decryptLegacy(legacyClientSecret, salt);
+    }
+
+    @Benchmark
+    public String encrypt() {
+        return clientSecretCipher.encrypt(CLIENT_ID, CLIENT_SECRET);
+    }
+
+    @Benchmark
+    public String decrypt() {
+        return clientSecretCipher.decrypt(ClientSecretCipher.DEFAULT_KEY_ID, CLIENT_ID, envelope);
+    }
+}
@@ -0,0 +1,73 @@
+package me.sonam.auth.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.security.crypto.encrypt.Encryptors;
+import org.springframework.security.crypto.keygen.KeyGenerators;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Legacy client secret decryption offloaded through the {@link CryptoExecutor} in bursts of concurrent
+ * requests: the fixed platform thread pool, virtual threads and Reactor's bounded elastic scheduler.
+ * Throughput is bursts per second, sample time gives the p99 and p999 of a burst.  virtual only runs in the
+ * -Pjava21 build, without it the jmh task leaves the case out: ./gradlew jmh -Pjava21 -PjmhInclude=CryptoExecutor
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CryptoExecutorBenchmark {
+    private static final String PASSWORD = "benchmark-password";
+
+    @Param({"platform", "virtual", "boundedElastic"})
+    private String executor;
+
+    @Param({"64"})
+    private int concurrency;
+
+    private CryptoExecutor cryptoExecutor;
+    private ClientSecretCipher clientSecretCipher;
+    private String salt;
+    private String legacyClientSecret;
+
+    @Setup
+    public void setup() {
+        if (executor.equals("virtual") && !VirtualThreads.available()) {
+            throw new IllegalStateException("virtual threads need the -Pjava21 build, run with -p executor=platform,boundedElastic");
+        }
+        cryptoExecutor = new CryptoExecutor(0, 1000, executor.equals("virtual"), new SimpleMeterRegistry());
+        clientSecretCipher = new ClientSecretCipher(PASSWORD, "benchmark-salt", ClientSecretCipher.DEFAULT_KEY_ID, Map.of());
+        salt = KeyGenerators.string().generateKey();
+        legacyClientSecret = Encryptors.text(PASSWORD, salt).encrypt("secret");
+    }
+
+    @TearDown
+    public void tearDown() {
+        cryptoExecutor.destroy();
+    }
+
+    @Benchmark
+    public String decryptBurst() {
+        return Flux.range(0, concurrency)
+                .flatMap(i -> offload(Mono.fromCallable(() -> clientSecretCipher.decryptLegacy(legacyClientSecret, salt))),
+                        concurrency)
+                .blockLast();
+    }
+
+    private Mono<String> offload(Mono<String> work) {
+        return executor.equals("boundedElastic") ? work.subscribeOn(Schedulers.boundedElastic()) :
+                cryptoExecutor.offload(work);
+    }
+}
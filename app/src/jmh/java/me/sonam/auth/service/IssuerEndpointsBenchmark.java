@@ -0,0 +1,79 @@
+package me.sonam.auth.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the precompiled {@link IssuerEndpoints} against the previous per request StringBuilder and
+ * UriComponentsBuilder parsing, the legacy* methods are kept here only as the baseline.
+ * Run with -prof gc and compare gc.alloc.rate.norm.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class IssuerEndpointsBenchmark {
+    private static final String AUTHORIZATION_ENDPOINT = "http://api-gateway:9001/issuer/oauth2/authorize";
+    private static final String TOKEN_ENDPOINT = "http://api-gateway:9001/issuer/oauth2/token";
+    private static final String CLIENT_ID = "articles-client";
+    private static final String REDIRECT_URI = "http://127.0.0.1:8090/login/oauth2/code/articles-client-oidc";
+    private static final String STATE = "8RtmFZMz8LZXR29ieDTMyVHChjWhmUNE0C-gI7d4E3k";
+    private static final String SCOPE = "articles.read articles.write";
+    private static final String CODE = "GieqKyXaViGHZcfX-cwobX9SHnwXTs_nXkjCDEwFiDLp6QBNtPFKIrsPKE_Lml3opmr60O65ixXtGppZ20L51tRGpS75g7qp55OXAyoUiGvv_M4GaDhhy9g2LAymgXKn";
+    private static final String REFRESH_TOKEN = "Qt85o6fATJEmq4j7MPUVD4UOw1xu-wVmKEpL55Nl8D_HSLeIVDq75GceC5nsFUE8ZdjcrT6pQFkCM" +
+            "-UzrFdbYYf8Zizw9Ioxo4ilO7GHBWj30edwqCcEcwrSST_G6n-Y";
+
+    private IssuerEndpoints issuerEndpoints;
+
+    @Setup
+    public void setup() {
+        issuerEndpoints = new IssuerEndpoints(AUTHORIZATION_ENDPOINT, TOKEN_ENDPOINT);
+    }
+
+    @Benchmark
+    public URI authorizeUri() {
+        return issuerEndpoints.authorizeUri(CLIENT_ID, REDIRECT_URI, STATE, SCOPE);
+    }
+
+    @Benchmark
+    public URI legacyAuthorizeUri() {
+        StringBuilder stringBuilder = new StringBuilder(AUTHORIZATION_ENDPOINT)
+                .append("?response_type=code&client_id=").append(CLIENT_ID);
+        stringBuilder.append("&redirect_uri=").append(REDIRECT_URI).append("&state=").append(STATE);
+        stringBuilder.append("&scope=").append(SCOPE);
+
+        return UriComponentsBuilder.fromUriString(stringBuilder.toString()).build().encode().toUri();
+    }
+
+    @Benchmark
+    public String authorizationCodeForm() {
+        return issuerEndpoints.authorizationCodeForm("authorization_code", REDIRECT_URI, CODE, SCOPE);
+    }
+
+    @Benchmark
+    public String legacyAccessTokenUri() {
+        return new StringBuilder(TOKEN_ENDPOINT).append("?grant_type=").append("authorization_code")
+                .append("&redirect_uri=").append(REDIRECT_URI)
+                .append("&code=").append(CODE)
+                .append("&scope=").append(SCOPE).toString();
+    }
+
+    @Benchmark
+    public String refreshTokenForm() {
+        return issuerEndpoints.refreshTokenForm("refresh_token", REFRESH_TOKEN);
+    }
+
+    @Benchmark
+    public String legacyRefreshTokenUri() {
+        return new StringBuilder(TOKEN_ENDPOINT).append("?grant_type=").append("refresh_token")
+                .append("&refresh_token=").append(REFRESH_TOKEN).toString();
+    }
+}
@@ -0,0 +1,26 @@
+package me.sonam.auth.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the Basic-auth header value built by {@link TokenMediatorService} when a client credential
+ * is loaded.  The uri and form building is covered by {@link IssuerEndpointsBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TokenMediatorServiceBenchmark {
+    private static final String CLIENT_ID = "articles-client";
+
+    @Benchmark
+    public String basicAuthCredentials() {
+        return TokenMediatorService.basicAuthCredentials(CLIENT_ID, "secret");
+    }
+}
@@ -0,0 +1,99 @@
+package me.sonam.auth.load;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntPredicate;
+import java.util.function.Supplier;
+
+/**
+ * Open model load: requests are started at a fixed arrival rate no matter how many are still in flight,
+ * the way independent clients behave, instead of a closed loop that slows down with the server.
+ * <p>
+ * A 1 ms tick works out how many requests are due since the start and sends them, each one remembers its
+ * intended start time.  Requests over max in-flight are not sent and count as errors.
+ */
+public class ArrivalRateDriver {
+    private static final Logger LOG = LoggerFactory.getLogger(ArrivalRateDriver.class);
+
+    private final String name;
+    private final int ratePerSecond;
+    private final int maxInFlight;
+    private final Duration timeout;
+    private final Supplier<Mono<Integer>> request;
+    private final IntPredicate success;
+
+    /**
+     * @param request sends one request and emits its http status
+     * @param success which statuses count as a successful request
+     */
+    public ArrivalRateDriver(String name, int ratePerSecond, int maxInFlight, Duration timeout,
+                             Supplier<Mono<Integer>> request, IntPredicate success) {
+        this.name = name;
+        this.ratePerSecond = ratePerSecond;
+        this.maxInFlight = maxInFlight;
+        this.timeout = timeout;
+        this.request = request;
+        this.success = success;
+    }
+
+    /**
+     * drives load for warmup plus duration, only requests intended to start after the warmup are reported
+     */
+    public LatencyReport run(Duration warmup, Duration duration) {
+        LOG.info("{}: {} requests/s for {} after {} warmup", name, ratePerSecond, duration, warmup);
+        final LatencyReport report = new LatencyReport(name, ratePerSecond);
+        final AtomicInteger inFlight = new AtomicInteger();
+        final double intervalNanos = 1_000_000_000.0 / ratePerSecond;
+        final long start = System.nanoTime();
+        final long measureStart = start + warmup.toNanos();
+        final long end = measureStart + duration.toNanos();
+        final long[] scheduled = new long[1];
+
+        Flux.interval(Duration.ofMillis(1))
+                .map(tick -> System.nanoTime())
+                .takeWhile(now -> now < end)
+                .concatMapIterable(now -> {
+                    long due = (long) ((now - start) / intervalNanos);
+                    List<Long> intendedStarts = new ArrayList<>((int) Math.max(0, due - scheduled[0]));
+                    for (long i = scheduled[0]; i < due; i++) {
+                        intendedStarts.add(start + (long) (i * intervalNanos));
+                    }
+                    scheduled[0] = Math.max(scheduled[0], due);
+                    return intendedStarts;
+                })
+                .flatMap(intendedStart -> send(intendedStart, intendedStart >= measureStart, inFlight, report),
+                        Integer.MAX_VALUE)
+                .blockLast(warmup.plus(duration).plus(timeout).plus(Duration.ofSeconds(10)));
+
+        report.finish(Duration.ofNanos(System.nanoTime() - measureStart));
+        return report;
+    }
+
+    private Mono<Void> send(long intendedStart, boolean measured, AtomicInteger inFlight, LatencyReport report) {
+        if (inFlight.incrementAndGet() > maxInFlight) {
+            inFlight.decrementAndGet();
+            if (measured) {
+                report.dropped();
+            }
+            return Mono.empty();
+        }
+
+        return Mono.defer(request)
+                .timeout(timeout)
+                .onErrorReturn(-1)
+                .doOnNext(status -> {
+                    if (measured) {
+                        report.record(System.nanoTime() - intendedStart, success.test(status));
+                    }
+                })
+                .doFinally(signalType -> inFlight.decrementAndGet())
+                .then();
+    }
+}
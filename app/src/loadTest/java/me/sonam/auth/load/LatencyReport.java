@@ -0,0 +1,93 @@
+package me.sonam.auth.load;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram and error counts of one load test scenario.  Latencies are recorded in microseconds
+ * from the intended send time of each request, so a stalled server shows up in the percentiles instead of
+ * silently lowering the request rate.
+ */
+public class LatencyReport {
+    private final String name;
+    private final int ratePerSecond;
+    private final Recorder recorder = new Recorder(3);
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    private Histogram histogram;
+    private Duration elapsed = Duration.ZERO;
+
+    public LatencyReport(String name, int ratePerSecond) {
+        this.name = name;
+        this.ratePerSecond = ratePerSecond;
+    }
+
+    public void record(long latencyNanos, boolean success) {
+        recorder.recordValue(Math.max(1, TimeUnit.NANOSECONDS.toMicros(latencyNanos)));
+        requests.increment();
+        if (!success) {
+            errors.increment();
+        }
+    }
+
+    /**
+     * a request that was due but not sent because max in-flight was reached, counted as an error
+     */
+    public void dropped() {
+        dropped.increment();
+        requests.increment();
+        errors.increment();
+    }
+
+    void finish(Duration elapsed) {
+        this.elapsed = elapsed;
+        this.histogram = recorder.getIntervalHistogram();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public double percentileMillis(double percentile) {
+        return histogram.getValueAtPercentile(percentile) / 1000.0;
+    }
+
+    public double errorRate() {
+        long total = requests.sum();
+        return total == 0 ? 0 : (double) errors.sum() / total;
+    }
+
+    public boolean meets(Duration p99, double maxErrorRate) {
+        return percentileMillis(99) <= p99.toMillis() && errorRate() <= maxErrorRate;
+    }
+
+    public String summary() {
+        double seconds = Math.max(1, elapsed.toMillis()) / 1000.0;
+        return String.format(Locale.ROOT, "%-10s target %d/s, achieved %.1f/s, requests %d, errors %d (dropped %d), " +
+                        "error rate %.4f, p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, p999 %.2f ms, max %.2f ms",
+                name, ratePerSecond, requests.sum() / seconds, requests.sum(), errors.sum(), dropped.sum(),
+                errorRate(), percentileMillis(50), percentileMillis(90), percentileMillis(99),
+                percentileMillis(99.9), histogram.getMaxValue() / 1000.0);
+    }
+
+    /**
+     * writes the full percentile distribution in milliseconds, the .hgrm format the HdrHistogram plotter reads
+     */
+    public void write(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        try (PrintStream printStream = new PrintStream(Files.newOutputStream(directory.resolve(name + ".hgrm")))) {
+            histogram.outputPercentileDistribution(printStream, 1000.0);
+        }
+    }
+}
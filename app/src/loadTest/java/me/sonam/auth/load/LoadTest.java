@@ -0,0 +1,174 @@
+package me.sonam.auth.load;
+
+import me.sonam.auth.harness.InProcessMediator;
+import me.sonam.auth.harness.StubIssuer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.SimpleCommandLinePropertySource;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.security.crypto.encrypt.Encryptors;
+import org.springframework.security.crypto.keygen.KeyGenerators;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reproducible load test of the token-mediator: starts the app in this jvm against H2 and a {@link StubIssuer}
+ * and drives /token and /authorize at fixed arrival rates at the same time.
+ * <p>
+ * Prints p50/p90/p99/p999 and the error rate per route, writes .hgrm percentile distributions to
+ * --report-dir and exits with 1 when a route misses --slo-p99 or --max-error-rate.
+ * <p>
+ * --legacy-token-rate adds /token requests for clients stored in the legacy secret format, each one a client
+ * not yet read so every request pays the legacy key derivation before its secret is upgraded.  The
+ * /authorize report next to it shows whether that work stays off the event loop.
+ * <pre>
+ * ./gradlew loadTest -PloadTestArgs="--token-rate=500 --duration=PT60S --issuer-latency=PT0.02S"
+ * ./gradlew loadTest -PloadTestArgs="--token-rate=200 --legacy-token-rate=100 --authorize-rate=200"
+ * </pre>
+ */
+public class LoadTest {
+    private static final Logger LOG = LoggerFactory.getLogger(LoadTest.class);
+
+    private static final String LEGACY_CLIENT_PREFIX = "legacy-client-";
+
+    public static void main(String[] args) throws IOException {
+        SimpleCommandLinePropertySource arguments = new SimpleCommandLinePropertySource(args);
+
+        final int tokenRate = Integer.parseInt(value(arguments, "token-rate", "200"));
+        final int legacyTokenRate = Integer.parseInt(value(arguments, "legacy-token-rate", "0"));
+        final int authorizeRate = Integer.parseInt(value(arguments, "authorize-rate", "200"));
+        final Duration warmup = Duration.parse(value(arguments, "warmup", "PT10S"));
+        final Duration duration = Duration.parse(value(arguments, "duration", "PT30S"));
+        final Duration issuerLatency = Duration.parse(value(arguments, "issuer-latency", "PT0.01S"));
+        final double issuerErrorRate = Double.parseDouble(value(arguments, "issuer-error-rate", "0"));
+        final int maxInFlight = Integer.parseInt(value(arguments, "max-in-flight", "2000"));
+        final Duration timeout = Duration.parse(value(arguments, "timeout", "PT5S"));
+        final Duration sloP99 = Duration.parse(value(arguments, "slo-p99", "PT0.25S"));
+        final double maxErrorRate = Double.parseDouble(value(arguments, "max-error-rate", "0.01"));
+        final Path reportDir = Path.of(value(arguments, "report-dir", "build/reports/load-test"));
+
+        boolean passed = true;
+        try (StubIssuer stubIssuer = new StubIssuer(issuerLatency, issuerErrorRate);
+             InProcessMediator mediator = InProcessMediator.start(stubIssuer.rootUri(),
+                     "--logging.level.root=warn", "--logging.level.me.sonam.auth.load=info",
+                     "--access-log.enabled=false").withClient()) {
+
+            ConnectionProvider connectionProvider = ConnectionProvider.builder("load-test")
+                    .maxConnections(maxInFlight).pendingAcquireMaxCount(-1).build();
+            WebClient webClient = WebClient.builder()
+                    .clientConnector(new ReactorClientHttpConnector(
+                            HttpClient.create(connectionProvider)))
+                    .build();
+
+            List<ArrivalRateDriver> drivers = new ArrayList<>();
+            if (tokenRate > 0) {
+                drivers.add(new ArrivalRateDriver("token", tokenRate, maxInFlight, timeout,
+                        () -> status(webClient.post().uri(tokenUri(mediator, InProcessMediator.CLIENT_ID))),
+                        status -> status == 200));
+            }
+            if (legacyTokenRate > 0) {
+                final int legacyClients = insertLegacyClients(mediator,
+                        (int) Math.max(1, legacyTokenRate * warmup.plus(duration).toSeconds()));
+                final AtomicInteger nextLegacyClient = new AtomicInteger();
+                drivers.add(new ArrivalRateDriver("legacy-token", legacyTokenRate, maxInFlight, timeout,
+                        () -> status(webClient.post().uri(tokenUri(mediator,
+                                LEGACY_CLIENT_PREFIX + nextLegacyClient.getAndIncrement() % legacyClients))),
+                        status -> status == 200));
+            }
+            if (authorizeRate > 0) {
+                drivers.add(new ArrivalRateDriver("authorize", authorizeRate, maxInFlight, timeout,
+                        () -> status(webClient.get().uri(authorizeUri(mediator))),
+                        status -> status == HttpStatus.TEMPORARY_REDIRECT.value()));
+            }
+
+            List<LatencyReport> reports = Flux.fromIterable(drivers)
+                    .flatMap(driver -> Mono.fromCallable(() -> driver.run(warmup, duration))
+                            .subscribeOn(Schedulers.boundedElastic()))
+                    .collectList()
+                    .block();
+
+            for (LatencyReport report : reports) {
+                report.write(reportDir);
+                boolean met = report.meets(sloP99, maxErrorRate);
+                LOG.info("{} {}", met ? "PASS" : "FAIL", report.summary());
+                passed &= met;
+            }
+            LOG.info("slo p99 {} ms, max error rate {}, percentile distributions in {}",
+                    sloP99.toMillis(), maxErrorRate, reportDir.toAbsolutePath());
+            connectionProvider.dispose();
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static Mono<Integer> status(WebClient.RequestHeadersSpec<?> requestHeadersSpec) {
+        return requestHeadersSpec.exchangeToMono(clientResponse -> clientResponse.releaseBody()
+                .thenReturn(clientResponse.statusCode().value()));
+    }
+
+    /**
+     * inserts clients in the legacy secret format straight into the database, the way rows written before the
+     * envelope format look, so the first read of each one pays the legacy key derivation
+     * @return the number of clients inserted
+     */
+    private static int insertLegacyClients(InProcessMediator mediator, int count) {
+        final DatabaseClient databaseClient = mediator.getBean(DatabaseClient.class);
+        final String password = mediator.getBean(Environment.class).getRequiredProperty("password");
+
+        Flux.range(0, count)
+                .flatMap(i -> Mono.fromCallable(() -> {
+                                    String salt = KeyGenerators.string().generateKey();
+                                    return new String[]{Encryptors.text(password, salt)
+                                            .encrypt(InProcessMediator.CLIENT_SECRET), salt};
+                                })
+                                .subscribeOn(Schedulers.parallel())
+                                .flatMap(secret -> databaseClient
+                                        .sql("INSERT INTO Client (client_id, client_secret, salt) VALUES ($1, $2, $3)")
+                                        .bind(0, LEGACY_CLIENT_PREFIX + i).bind(1, secret[0]).bind(2, secret[1])
+                                        .fetch().rowsUpdated()),
+                        16)
+                .then()
+                .block();
+        LOG.info("inserted {} legacy format clients", count);
+        return count;
+    }
+
+    private static URI tokenUri(InProcessMediator mediator, String clientId) {
+        return UriComponentsBuilder.fromUriString(mediator.baseUri() + "/oauth2-token-mediator/token")
+                .queryParam("client_id", clientId)
+                .queryParam("grant_type", "authorization_code")
+                .queryParam("redirect_uri", "http://127.0.0.1:8090/login/oauth2/code/articles-client-oidc")
+                .queryParam("code", "load-test-code")
+                .build().encode().toUri();
+    }
+
+    private static URI authorizeUri(InProcessMediator mediator) {
+        return UriComponentsBuilder.fromUriString(mediator.baseUri() + "/oauth2-token-mediator/authorize")
+                .queryParam("response_type", "code")
+                .queryParam("client_id", InProcessMediator.CLIENT_ID)
+                .queryParam("scope", "openid profile")
+                .queryParam("redirect_uri", "http://127.0.0.1:8090/login/oauth2/code/articles-client-oidc")
+                .queryParam("state", "load-test-state")
+                .build().encode().toUri();
+    }
+
+    private static String value(SimpleCommandLinePropertySource arguments, String name, String defaultValue) {
+        String value = arguments.getProperty(name);
+        return value == null ? defaultValue : value;
+    }
+}
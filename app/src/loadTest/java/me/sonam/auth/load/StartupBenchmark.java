@@ -0,0 +1,126 @@
+package me.sonam.auth.load;
+
+import me.sonam.auth.harness.InProcessMediator;
+import me.sonam.auth.harness.StubIssuer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.SimpleCommandLinePropertySource;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Cold start benchmark: starts a new jvm running {@link StartupTarget} per run and reports the time from
+ * process start to the first successful /token, which is what autoscaling waits for.
+ * <p>
+ * --jvm-args, comma separated or repeated, are passed to each started jvm, so the same benchmark compares the plain app with an AOT
+ * processed one (-Paot and -Dspring.aot.enabled=true) or one started from a CDS archive (a first run with
+ * -XX:ArchiveClassesAtExit=..., the following ones with -XX:SharedArchiveFile=...).  Jvm output of each run
+ * is written to --report-dir.
+ * <pre>
+ * ./gradlew startupBenchmark -PstartupArgs="--runs=5"
+ * ./gradlew startupBenchmark -Paot -PstartupArgs="--runs=5 --jvm-args=-Dspring.aot.enabled=true"
+ * ./gradlew startupBenchmark -PstartupArgs="--runs=1 --jvm-args=-XX:ArchiveClassesAtExit=build/startup.jsa"
+ * ./gradlew startupBenchmark -PstartupArgs="--runs=5 --jvm-args=-XX:SharedArchiveFile=build/startup.jsa"
+ * </pre>
+ */
+public class StartupBenchmark {
+    private static final Logger LOG = LoggerFactory.getLogger(StartupBenchmark.class);
+
+    public static void main(String[] args) throws Exception {
+        SimpleCommandLinePropertySource arguments = new SimpleCommandLinePropertySource(args);
+
+        final int runs = Integer.parseInt(value(arguments, "runs", "5"));
+        final List<String> jvmArgs = Arrays.stream(value(arguments, "jvm-args", "").split(","))
+                .filter(arg -> !arg.isBlank()).toList();
+        final Duration timeout = Duration.parse(value(arguments, "timeout", "PT120S"));
+        final Path reportDir = Path.of(value(arguments, "report-dir", "build/reports/startup"));
+        Files.createDirectories(reportDir);
+
+        HttpClient httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(1)).build();
+        List<Long> millis = new ArrayList<>();
+
+        try (StubIssuer stubIssuer = new StubIssuer()) {
+            for (int run = 1; run <= runs; run++) {
+                final int port = freePort();
+                List<String> command = new ArrayList<>();
+                command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+                command.addAll(jvmArgs);
+                command.addAll(List.of("-cp", System.getProperty("java.class.path"), StartupTarget.class.getName(),
+                        "--port=" + port, "--issuer-root=" + stubIssuer.rootUri()));
+
+                Path log = reportDir.resolve("run-" + run + ".log");
+                final long start = System.nanoTime();
+                Process process = new ProcessBuilder(command).redirectErrorStream(true)
+                        .redirectOutput(log.toFile()).start();
+                try {
+                    long elapsed = firstSuccessfulToken(httpClient, tokenUri(port), process, start, timeout);
+                    millis.add(elapsed);
+                    LOG.info("run {}: first successful /token after {} ms", run, elapsed);
+                }
+                finally {
+                    process.destroy();
+                    process.waitFor();
+                }
+            }
+        }
+
+        Collections.sort(millis);
+        LOG.info("time to first successful /token over {} runs: min {} ms, median {} ms, max {} ms, jvm args: {}",
+                millis.size(), millis.get(0), millis.get(millis.size() / 2), millis.get(millis.size() - 1), jvmArgs);
+    }
+
+    /**
+     * polls /token every 10 ms until it answers 200
+     * @return milliseconds since start
+     */
+    private static long firstSuccessfulToken(HttpClient httpClient, URI tokenUri, Process process, long start,
+                                             Duration timeout) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(tokenUri).POST(HttpRequest.BodyPublishers.noBody()).build();
+
+        while (System.nanoTime() - start < timeout.toNanos()) {
+            if (!process.isAlive()) {
+                throw new IllegalStateException("mediator exited with " + process.exitValue() + " before serving /token");
+            }
+            try {
+                if (httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                    return (System.nanoTime() - start) / 1_000_000;
+                }
+            }
+            catch (ConnectException e) {
+                // not listening yet
+            }
+            Thread.sleep(10);
+        }
+        throw new IllegalStateException("no successful /token within " + timeout);
+    }
+
+    private static URI tokenUri(int port) {
+        return URI.create("http://localhost:" + port + "/oauth2-token-mediator/token?client_id=" +
+                InProcessMediator.CLIENT_ID + "&grant_type=authorization_code&code=startup-code" +
+                "&redirect_uri=http%3A%2F%2F127.0.0.1%3A8090%2Flogin%2Foauth2%2Fcode%2Farticles-client-oidc");
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            return serverSocket.getLocalPort();
+        }
+    }
+
+    private static String value(SimpleCommandLinePropertySource arguments, String name, String defaultValue) {
+        String value = arguments.getProperty(name);
+        return value == null ? defaultValue : value;
+    }
+}
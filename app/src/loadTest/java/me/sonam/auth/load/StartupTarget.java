@@ -0,0 +1,19 @@
+package me.sonam.auth.load;
+
+import me.sonam.auth.harness.InProcessMediator;
+import org.springframework.core.env.SimpleCommandLinePropertySource;
+
+/**
+ * The jvm {@link StartupBenchmark} starts and times: the token-mediator on --port against H2 and the
+ * benchmark's stub issuer at --issuer-root, with the benchmark client saved.  It runs until it is killed.
+ */
+public class StartupTarget {
+
+    public static void main(String[] args) {
+        SimpleCommandLinePropertySource arguments = new SimpleCommandLinePropertySource(args);
+
+        InProcessMediator.start(Integer.parseInt(arguments.getRequiredProperty("port")),
+                arguments.getRequiredProperty("issuer-root"),
+                "--logging.level.root=warn", "--access-log.enabled=false").withClient();
+    }
+}
@@ -0,0 +1,82 @@
+package me.sonam.auth;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactoryMetadata;
+import io.r2dbc.spi.Wrapped;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+/**
+ * Times how long callers wait for a pooled connection, published as the r2dbc.pool.acquire timer with an
+ * outcome tag.  The pool gauges, pending acquires included, come from Spring Boot which finds the pool
+ * through {@link Wrapped#unwrap()}.
+ */
+public class AcquireTimingConnectionFactory implements ConnectionFactory, Wrapped<ConnectionFactory>, Disposable,
+        AutoCloseable {
+
+    private final ConnectionPool connectionPool;
+    private final MeterRegistry meterRegistry;
+    private final Timer successTimer;
+    private final Timer errorTimer;
+
+    public AcquireTimingConnectionFactory(ConnectionPool connectionPool, MeterRegistry meterRegistry) {
+        this.connectionPool = connectionPool;
+        this.meterRegistry = meterRegistry;
+        this.successTimer = timer("success");
+        this.errorTimer = timer("error");
+    }
+
+    @Override
+    public Mono<Connection> create() {
+        return Mono.defer(() -> {
+            Timer.Sample sample = Timer.start(meterRegistry);
+            return connectionPool.create()
+                    .doOnSuccess(connection -> sample.stop(successTimer))
+                    .doOnError(throwable -> sample.stop(errorTimer));
+        });
+    }
+
+    @Override
+    public ConnectionFactoryMetadata getMetadata() {
+        return connectionPool.getMetadata();
+    }
+
+    @Override
+    public ConnectionFactory unwrap() {
+        return connectionPool;
+    }
+
+    public ConnectionPool connectionPool() {
+        return connectionPool;
+    }
+
+    @Override
+    public void dispose() {
+        connectionPool.dispose();
+    }
+
+    /**
+     * disposes the pool, called by the container on shutdown
+     */
+    @Override
+    public void close() {
+        dispose();
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return connectionPool.isDisposed();
+    }
+
+    private Timer timer(String outcome) {
+        return Timer.builder("r2dbc.pool.acquire")
+                .description("time waited for a pooled database connection")
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,59 @@
+package me.sonam.auth;
+
+import org.slf4j.Logger;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Logs at most one warning per {@link OAuthError} and interval, the ones in between are only counted and the
+ * count goes out with the next logged one.  An issuer outage then costs a line every interval instead of a
+ * stack trace per request.  Only server_error failures, the ones not mapped to a known cause, carry their stack trace.
+ */
+class ErrorLogThrottle {
+
+    private final Logger log;
+    private final long intervalNanos;
+    private final Map<OAuthError, Window> windows = new EnumMap<>(OAuthError.class);
+
+    ErrorLogThrottle(Logger log, Duration interval) {
+        this.log = log;
+        this.intervalNanos = interval.toNanos();
+        for (OAuthError error : OAuthError.values()) {
+            windows.put(error, new Window(System.nanoTime() - intervalNanos));
+        }
+    }
+
+    /**
+     * @param request what failed, e.g. 'token request'
+     */
+    void log(String request, OAuthError error, Throwable throwable) {
+        Window window = windows.get(error);
+        final long now = System.nanoTime();
+        final long last = window.lastLogged.get();
+
+        if (now - last < intervalNanos || !window.lastLogged.compareAndSet(last, now)) {
+            window.suppressed.incrementAndGet();
+            return;
+        }
+        final long suppressed = window.suppressed.getAndSet(0);
+        if (error == OAuthError.SERVER_ERROR) {
+            log.warn("{} failed with {}, {} more since the last warning", request, error.error(), suppressed, throwable);
+        }
+        else {
+            log.warn("{} failed with {} ({}), {} more since the last warning", request, error.error(),
+                    throwable.getClass().getSimpleName(), suppressed);
+        }
+    }
+
+    private static final class Window {
+        private final AtomicLong lastLogged;
+        private final AtomicLong suppressed = new AtomicLong();
+
+        private Window(long lastLogged) {
+            this.lastLogged = new AtomicLong(lastLogged);
+        }
+    }
+}
@@ -1,7 +1,11 @@
 package me.sonam.auth;
 
+import me.sonam.auth.service.ReadinessMonitor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.boot.availability.ApplicationAvailability;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.reactive.function.server.ServerRequest;
@@ -9,12 +13,22 @@ import org.springframework.web.reactive.function.server.ServerResponse;
 import reactor.core.publisher.Mono;
 
 /**
- * a basic handler for liveness and readiness endpoints
+ * a basic handler for liveness and readiness endpoints.  Readiness stays 503 until the application is ready,
+ * which is after the connection pool warm-up, and afterwards answers from the {@link ReadinessMonitor} snapshot
+ * with the per-dependency detail in the body.
  */
 @Controller
 public class LivenessReadinessHandler {
     private static final Logger LOG = LoggerFactory.getLogger(LivenessReadinessHandler.class);
 
+    private final ApplicationAvailability applicationAvailability;
+    private final ReadinessMonitor readinessMonitor;
+
+    public LivenessReadinessHandler(ApplicationAvailability applicationAvailability, ReadinessMonitor readinessMonitor) {
+        this.applicationAvailability = applicationAvailability;
+        this.readinessMonitor = readinessMonitor;
+    }
+
     public Mono<ServerResponse> liveness(ServerRequest serverRequest) {
         LOG.debug("liveness check");
         return ServerResponse.ok().contentType(MediaType.APPLICATION_JSON).build();
@@ -22,7 +36,12 @@ public class LivenessReadinessHandler {
 
     public Mono<ServerResponse> readiness(ServerRequest serverRequest) {
         LOG.debug("readiness check");
-        return ServerResponse.ok().contentType(MediaType.APPLICATION_JSON).build();
+        ReadinessMonitor.ReadinessSnapshot snapshot = readinessMonitor.snapshot();
+        boolean ready = snapshot.isReady() &&
+                applicationAvailability.getReadinessState() == ReadinessState.ACCEPTING_TRAFFIC;
+
+        return ServerResponse.status(ready ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE)
+                .contentType(MediaType.APPLICATION_JSON).bodyValue(snapshot);
     }
 
 }
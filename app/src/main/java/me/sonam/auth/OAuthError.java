@@ -0,0 +1,143 @@
+package me.sonam.auth;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.r2dbc.spi.R2dbcNonTransientResourceException;
+import io.r2dbc.spi.R2dbcTransientException;
+import me.sonam.auth.service.IssuerUnavailableException;
+import me.sonam.auth.service.UnknownClientException;
+import org.springframework.core.codec.DecodingException;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import org.springframework.web.server.ServerWebInputException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * The token endpoint error responses of RFC 6749 section 5.2, with their json bodies serialized once.
+ * Failures are mapped from what the issuer answered, or from why it was not asked.  The client admin endpoints
+ * answer with the same bodies, plus not_found and server_error.
+ */
+enum OAuthError {
+    INVALID_REQUEST("invalid_request", HttpStatus.BAD_REQUEST),
+    INVALID_CLIENT("invalid_client", HttpStatus.UNAUTHORIZED),
+    INVALID_GRANT("invalid_grant", HttpStatus.BAD_REQUEST),
+    UNAUTHORIZED_CLIENT("unauthorized_client", HttpStatus.BAD_REQUEST),
+    UNSUPPORTED_GRANT_TYPE("unsupported_grant_type", HttpStatus.BAD_REQUEST),
+    INVALID_SCOPE("invalid_scope", HttpStatus.BAD_REQUEST),
+    TEMPORARILY_UNAVAILABLE("temporarily_unavailable", HttpStatus.SERVICE_UNAVAILABLE),
+    SERVER_ERROR("server_error", HttpStatus.INTERNAL_SERVER_ERROR),
+    NOT_FOUND("not_found", HttpStatus.NOT_FOUND);
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    /**
+     * the section 5.2 codes an issuer answer is relayed with
+     */
+    private static final Map<String, OAuthError> ISSUER_ERRORS = Arrays.stream(new OAuthError[]{INVALID_REQUEST,
+                    INVALID_CLIENT, INVALID_GRANT, UNAUTHORIZED_CLIENT, UNSUPPORTED_GRANT_TYPE, INVALID_SCOPE})
+            .collect(Collectors.toUnmodifiableMap(OAuthError::error, Function.identity()));
+
+    private final String error;
+    private final HttpStatus status;
+    private final byte[] body;
+
+    OAuthError(String error, HttpStatus status) {
+        this.error = error;
+        this.status = status;
+        this.body = ("{\"error\":\"" + error + "\"}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    String error() {
+        return error;
+    }
+
+    HttpStatus status() {
+        return status;
+    }
+
+    /**
+     * the serialized {"error":"..."} body, shared by all responses so it must not be modified
+     */
+    byte[] body() {
+        return body;
+    }
+
+    /**
+     * a token request failure.  Issuer 4xx answers are relayed with their section 5.2 error code, an issuer 401
+     * without a known code is invalid_client and any other invalid_request.  Issuer 5xx answers, timeouts,
+     * rejections and connection and database failures are temporary.
+     */
+    static OAuthError of(Throwable throwable) {
+        if (throwable instanceof UnknownClientException) {
+            return INVALID_CLIENT;
+        }
+        if (throwable instanceof WebClientResponseException responseException) {
+            return issuerError(responseException);
+        }
+        if (throwable instanceof IssuerUnavailableException || throwable instanceof RejectedExecutionException ||
+                throwable instanceof WebClientRequestException || isTemporary(throwable)) {
+            return TEMPORARILY_UNAVAILABLE;
+        }
+        if (throwable instanceof ServerWebInputException || throwable instanceof DecodingException) {
+            return INVALID_REQUEST;
+        }
+        return SERVER_ERROR;
+    }
+
+    /**
+     * a client admin request failure, an unknown clientId is not_found
+     */
+    static OAuthError ofClientRequest(Throwable throwable) {
+        if (throwable instanceof UnknownClientException) {
+            return NOT_FOUND;
+        }
+        if (throwable instanceof ServerWebInputException || throwable instanceof DecodingException) {
+            return INVALID_REQUEST;
+        }
+        return isTemporary(throwable) || throwable instanceof RejectedExecutionException ?
+                TEMPORARILY_UNAVAILABLE : SERVER_ERROR;
+    }
+
+    private static OAuthError issuerError(WebClientResponseException responseException) {
+        if (!responseException.getStatusCode().is4xxClientError()) {
+            return TEMPORARILY_UNAVAILABLE;
+        }
+        OAuthError relayed = ISSUER_ERRORS.get(errorCode(responseException.getResponseBodyAsByteArray()));
+        if (relayed != null) {
+            return relayed;
+        }
+        return responseException.getStatusCode().value() == HttpStatus.UNAUTHORIZED.value() ?
+                INVALID_CLIENT : INVALID_REQUEST;
+    }
+
+    /**
+     * the error member of an issuer error body, null when there is none
+     */
+    private static String errorCode(byte[] body) {
+        if (body == null || body.length == 0) {
+            return null;
+        }
+        try {
+            return OBJECT_MAPPER.readTree(body).path("error").textValue();
+        }
+        catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static boolean isTemporary(Throwable throwable) {
+        return throwable instanceof TimeoutException || throwable instanceof TransientDataAccessException ||
+                throwable instanceof DataAccessResourceFailureException || throwable instanceof R2dbcTransientException ||
+                throwable instanceof R2dbcNonTransientResourceException;
+    }
+}
@@ -1,17 +1,31 @@
 package me.sonam.auth;
 
 import me.sonam.auth.repo.entity.Client;
+import me.sonam.auth.service.ClientBulkService;
+import me.sonam.auth.service.ClientImportResult;
+import me.sonam.auth.service.ClientKeyRotationJob;
 import me.sonam.auth.service.TokenMediatorService;
+import me.sonam.auth.service.TokenMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.data.util.Pair;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.BodyInserters;
 import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.server.ServerWebInputException;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -22,11 +36,26 @@ public class OauthFlowHandler {
     @Autowired
     private TokenMediatorService tokenMediatorService;
 
-    public OauthFlowHandler() {
+    @Autowired
+    private TokenMetrics tokenMetrics;
+
+    @Autowired
+    private ClientBulkService clientBulkService;
+
+    @Autowired
+    private ClientKeyRotationJob clientKeyRotationJob;
+
+    @Value("${token-response.passthrough:true}")
+    private boolean passthrough;
+
+    private final ErrorLogThrottle errorLogThrottle;
+
+    public OauthFlowHandler(@Value("${token-error-log.interval:PT10S}") Duration errorLogInterval) {
+        this.errorLogThrottle = new ErrorLogThrottle(LOG, errorLogInterval);
     }
 
     public Mono<ServerResponse> initateOauthFlow(ServerRequest serverRequest) {
-        LOG.info("initialize oauth authorize flow");
+        LOG.debug("initialize oauth authorize flow");
         final String scopes = serverRequest.queryParams().getFirst("scope");
         final String clientId = serverRequest.queryParams().getFirst("client_id");
         final String redirectUri = serverRequest.queryParams().getFirst("redirect_uri");
@@ -37,23 +66,35 @@ public class OauthFlowHandler {
     }
 
     public Mono<ServerResponse> getAccessToken(ServerRequest serverRequest) {
-        LOG.info("get access token (refresh token) with code");
+        LOG.debug("get access token (refresh token) with code");
+
+        final String grantType = serverRequest.queryParams().getFirst("grant_type");
+        if (grantType == null || serverRequest.queryParams().getFirst("client_id") == null) {
+            return tokenErrorResponse(new ServerWebInputException("grant_type and client_id are required"));
+        }
 
-        if (serverRequest.queryParams().getFirst("grant_type").equals("refresh_token")) {
-            LOG.info("grant_type is refresh token");
+        if (grantType.equals("refresh_token")) {
+            LOG.debug("grant_type is refresh token");
+            if (serverRequest.queryParams().getFirst("refresh_token") == null) {
+                return tokenErrorResponse(new ServerWebInputException("refresh_token is required"));
+            }
             return tokenMediatorService.getRefreshToken(serverRequest.queryParams().getFirst("grant_type"),
                     serverRequest.queryParams().getFirst("refresh_token"),
                     serverRequest.queryParams().getFirst("client_id"))
-                    .flatMap(token -> ServerResponse.ok().bodyValue(token))
-                    .onErrorResume(throwable -> {
-                        LOG.error("failed to get access tokens", throwable);
-                        return ServerResponse.badRequest().contentType(MediaType.APPLICATION_JSON)
-                                .bodyValue(getMap(Pair.of("error", throwable.getMessage())));
-                    });
+                    .flatMap(token -> writeToken(token))
+                    .onErrorResume(this::tokenErrorResponse);
         }
 
-        LOG.info("check server query params: {}", serverRequest.queryParams());
-
+        if (passthrough) {
+            return tokenMediatorService.getAccessTokenResponse(
+                    serverRequest.queryParams().getFirst("client_id"),
+                    serverRequest.queryParams().getFirst("redirect_uri"),
+                    serverRequest.queryParams().getFirst("grant_type"),
+                    serverRequest.queryParams().getFirst("code"),
+                    serverRequest.queryParams().getFirst("scope"))
+                    .flatMap(responseEntity -> relayTokenResponse(responseEntity, serverRequest))
+                    .onErrorResume(this::tokenErrorResponse);
+        }
 
         return tokenMediatorService.getAccessToken(
                 serverRequest.queryParams().getFirst("client_id"),
@@ -61,12 +102,64 @@ public class OauthFlowHandler {
                 serverRequest.queryParams().getFirst("grant_type"),
                 serverRequest.queryParams().getFirst("code"),
                 serverRequest.queryParams().getFirst("scope"))
-                .flatMap(token -> ServerResponse.ok().bodyValue(token))
-                .onErrorResume(throwable -> {
-                    LOG.error("failed to get access tokens", throwable);
-                    return ServerResponse.badRequest().contentType(MediaType.APPLICATION_JSON)
-                            .bodyValue(getMap(Pair.of("error", throwable.getMessage())));
-                });
+                .flatMap(token -> writeToken(token))
+                .onErrorResume(this::tokenErrorResponse);
+    }
+
+    /**
+     * answers with the RFC 6749 error the failure maps to, see {@link OAuthError#of}.  The body never echoes
+     * the exception message and the warning is throttled.
+     */
+    private Mono<ServerResponse> tokenErrorResponse(Throwable throwable) {
+        final OAuthError error = OAuthError.of(throwable);
+        errorLogThrottle.log("token request", error, throwable);
+        return errorResponse(error);
+    }
+
+    /**
+     * the client admin counterpart of {@link #tokenErrorResponse}, see {@link OAuthError#ofClientRequest}
+     */
+    private Mono<ServerResponse> clientErrorResponse(Throwable throwable) {
+        final OAuthError error = OAuthError.ofClientRequest(throwable);
+        errorLogThrottle.log("client request", error, throwable);
+        return errorResponse(error);
+    }
+
+    private static Mono<ServerResponse> errorResponse(OAuthError error) {
+        return ServerResponse.status(error.status()).contentType(MediaType.APPLICATION_JSON)
+                .cacheControl(CacheControl.noStore())
+                .header(HttpHeaders.PRAGMA, "no-cache")
+                .bodyValue(error.body());
+    }
+
+    /**
+     * relays the issuer status, content type and body buffers to the caller without decoding the body.
+     * Token responses must not be cached, see RFC 6749 section 5.1.
+     */
+    private Mono<ServerResponse> relayTokenResponse(ResponseEntity<Flux<DataBuffer>> responseEntity,
+                                                    ServerRequest serverRequest) {
+        ServerResponse.BodyBuilder bodyBuilder = ServerResponse.status(responseEntity.getStatusCode())
+                .cacheControl(CacheControl.noStore())
+                .header(HttpHeaders.PRAGMA, "no-cache");
+
+        MediaType contentType = responseEntity.getHeaders().getContentType();
+        if (contentType != null) {
+            bodyBuilder.contentType(contentType);
+        }
+        return bodyBuilder.body(BodyInserters.fromDataBuffers(tokenMetrics.time(responseEntity.getBody(),
+                TokenMetrics.RESPONSE_WRITE, serverRequest.queryParams().getFirst("client_id"),
+                serverRequest.queryParams().getFirst("grant_type"))));
+    }
+
+    /**
+     * writes a token response that was read into a String, not cacheable either.  There is no response_write
+     * phase here, the String is complete before the write starts.
+     */
+    private Mono<ServerResponse> writeToken(String token) {
+        return ServerResponse.ok()
+                .cacheControl(CacheControl.noStore())
+                .header(HttpHeaders.PRAGMA, "no-cache")
+                .bodyValue(token);
     }
 
     public Mono<ServerResponse> saveClient(ServerRequest serverRequest) {
@@ -79,12 +172,7 @@ public class OauthFlowHandler {
                            return ServerResponse.ok().bodyValue(
                                     getMap(Pair.of("message", "saved clientId in token-mediator with count: " + count)));
                         })
-                                .onErrorResume( throwable -> {
-                                    LOG.error("failed to get save client", throwable);
-                                    return ServerResponse.badRequest().contentType(MediaType.APPLICATION_JSON)
-                                            .bodyValue(getMap(Pair.of("error", throwable.getMessage())));
-                                }
-        );
+                                .onErrorResume(this::clientErrorResponse);
     }
 
     public Mono<ServerResponse> deleteClient(ServerRequest serverRequest) {
@@ -96,24 +184,71 @@ public class OauthFlowHandler {
                             getMap(
                                     Pair.of("message", "deleted clientId in token-mediator: " +
                                             serverRequest.pathVariable("clientId"))));
-                }).onErrorResume( throwable -> {
-                                        LOG.error("failed to get delete client", throwable);
-                                        return ServerResponse.badRequest().contentType(MediaType.APPLICATION_JSON)
-                                                .bodyValue(getMap(Pair.of("error", throwable.getMessage())));
-                                    }
-                            );
+                }).onErrorResume(this::clientErrorResponse);
                 }
 
 
+    /**
+     * answers with the client and its ETag, or a 304 when If-None-Match still matches, a 404 for an unknown clientId
+     */
     public Mono<ServerResponse> getClient(ServerRequest serverRequest) {
-        LOG.info("get client");
-        return tokenMediatorService.getClient(serverRequest.pathVariable("clientId"))
-                .flatMap(client -> {
-                    LOG.info("get client by clientId");
-                    return ServerResponse.ok().bodyValue(client);
+        LOG.debug("get client");
+        final String ifNoneMatch = serverRequest.headers().firstHeader(HttpHeaders.IF_NONE_MATCH);
+
+        return tokenMediatorService.getCachedClient(serverRequest.pathVariable("clientId"))
+                .flatMap(cachedClient -> {
+                    if (matches(ifNoneMatch, cachedClient.etag())) {
+                        return ServerResponse.status(HttpStatus.NOT_MODIFIED).eTag(cachedClient.etag())
+                                .cacheControl(CacheControl.noCache().cachePrivate()).build();
+                    }
+                    return ServerResponse.ok().eTag(cachedClient.etag())
+                            .cacheControl(CacheControl.noCache().cachePrivate())
+                            .bodyValue(cachedClient.toClient());
                 })
-                .onErrorResume(throwable -> ServerResponse.badRequest().contentType(MediaType.APPLICATION_JSON)
-                        .bodyValue(getMap(Pair.of("error", throwable.getMessage()))));
+                .onErrorResume(this::clientErrorResponse);
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String trimmed = candidate.trim();
+            if (trimmed.equals("*") || trimmed.equals(etag) || trimmed.equals("W/" + etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * imports a ndjson stream of clients and streams back one {@link ClientImportResult} line per client
+     */
+    public Mono<ServerResponse> importClients(ServerRequest serverRequest) {
+        LOG.info("import clients");
+        return ServerResponse.ok().contentType(MediaType.APPLICATION_NDJSON)
+                .body(clientBulkService.importClients(serverRequest.bodyToFlux(Client.class)), ClientImportResult.class);
+    }
+
+    /**
+     * exports all clients with their decrypted clientSecret as ndjson
+     */
+    public Mono<ServerResponse> exportClients(ServerRequest serverRequest) {
+        LOG.info("export clients");
+        return ServerResponse.ok().contentType(MediaType.APPLICATION_NDJSON)
+                .body(clientBulkService.exportClients(), Client.class);
+    }
+
+    /**
+     * starts re-encrypting client secrets under the primary key in the background
+     */
+    public Mono<ServerResponse> rotateClientKeys(ServerRequest serverRequest) {
+        LOG.info("rotate client secret keys");
+        final boolean started = clientKeyRotationJob.start();
+
+        return ServerResponse.accepted().contentType(MediaType.APPLICATION_JSON).bodyValue(getMap(
+                Pair.of("message", started ? "key rotation started" : "key rotation already running"),
+                Pair.of("pending", String.valueOf(clientKeyRotationJob.pending()))));
     }
 
     @SafeVarargs
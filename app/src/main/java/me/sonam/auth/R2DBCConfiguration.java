@@ -1,14 +1,95 @@
 package me.sonam.auth;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.pool.ConnectionPoolConfiguration;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.Option;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.r2dbc.R2dbcProperties;
+import org.springframework.boot.context.properties.PropertyMapper;
+import org.springframework.boot.r2dbc.ConnectionFactoryBuilder;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.r2dbc.repository.config.EnableR2dbcRepositories;
+import org.springframework.util.StringUtils;
 
+import java.time.Duration;
+
+/**
+ * The connection pool is built from the spring.r2dbc.pool properties here instead of by Spring Boot so
+ * connection acquisition can be timed, see {@link AcquireTimingConnectionFactory}.  Like Spring Boot it applies
+ * the spring.r2dbc.properties driver options and leaves the connections unpooled with pool.enabled false.
+ */
 @Configuration
 @EnableR2dbcRepositories
 public class R2DBCConfiguration {
     private static final Logger LOG = LoggerFactory.getLogger(R2DBCConfiguration.class);
 
+    @Bean
+    public ConnectionFactory connectionFactory(R2dbcProperties properties, MeterRegistry meterRegistry) {
+        ConnectionFactoryBuilder builder = ConnectionFactoryBuilder.withUrl(properties.getUrl());
+        if (StringUtils.hasText(properties.getUsername())) {
+            builder.username(properties.getUsername());
+        }
+        if (StringUtils.hasText(properties.getPassword())) {
+            builder.password(properties.getPassword());
+        }
+        builder.configure(options -> properties.getProperties()
+                .forEach((key, value) -> options.option(Option.valueOf(key), value)));
+        ConnectionFactory connectionFactory = builder.build();
+
+        if (connectionFactory instanceof ConnectionPool connectionPool) {
+            LOG.info("connection pool configured by the r2dbc:pool: url");
+            return new AcquireTimingConnectionFactory(connectionPool, meterRegistry);
+        }
+        R2dbcProperties.Pool pool = properties.getPool();
+        if (!pool.isEnabled()) {
+            LOG.info("connection pool disabled, every connection is opened on demand");
+            return connectionFactory;
+        }
+
+        ConnectionPoolConfiguration.Builder poolBuilder = ConnectionPoolConfiguration.builder(connectionFactory);
+        PropertyMapper map = PropertyMapper.get().alwaysApplyingWhenNonNull();
+        map.from(pool.getInitialSize()).to(poolBuilder::initialSize);
+        map.from(pool.getMaxSize()).to(poolBuilder::maxSize);
+        map.from(pool.getMaxIdleTime()).to(poolBuilder::maxIdleTime);
+        map.from(pool.getMaxLifeTime()).to(poolBuilder::maxLifeTime);
+        map.from(pool.getMaxAcquireTime()).to(poolBuilder::maxAcquireTime);
+        map.from(pool.getMaxCreateConnectionTime()).to(poolBuilder::maxCreateConnectionTime);
+        map.from(pool.getValidationQuery()).whenHasText().to(poolBuilder::validationQuery);
+        map.from(pool.getValidationDepth()).to(poolBuilder::validationDepth);
+        poolBuilder.name("connectionFactory");
+
+        LOG.info("connection pool with initialSize: {}, maxSize: {}, maxAcquireTime: {}, validationQuery: {}",
+                pool.getInitialSize(), pool.getMaxSize(), pool.getMaxAcquireTime(), pool.getValidationQuery());
+        return new AcquireTimingConnectionFactory(new ConnectionPool(poolBuilder.build()), meterRegistry);
+    }
 
+    /**
+     * opens the initial connections before the application reports ready, so the first requests after a
+     * rollout do not pay the connection setup.  It first waits for the {@link SchemaInitializer}, a failed schema
+     * fails the startup.  A failed warm-up is logged, connections are then opened on demand.
+     */
+    @Bean
+    public ApplicationRunner connectionPoolWarmup(ConnectionFactory connectionFactory,
+                                                  SchemaInitializer schemaInitializer,
+                                                  @Value("${connection-pool.warmup-timeout:PT30S}") Duration timeout) {
+        return args -> {
+            schemaInitializer.initialized().block(timeout);
+            if (!(connectionFactory instanceof AcquireTimingConnectionFactory pooled)) {
+                return;
+            }
+            try {
+                Integer connections = pooled.connectionPool().warmup().block(timeout);
+                LOG.info("warmed up {} pooled connections", connections);
+            }
+            catch (RuntimeException e) {
+                LOG.warn("connection pool warm-up failed: {}", e.getMessage());
+            }
+        };
+    }
 }
@@ -0,0 +1,138 @@
+package me.sonam.auth;
+
+import me.sonam.auth.service.RateLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.security.web.util.matcher.IpAddressMatcher;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Applies the {@link RateLimiter} to the unauthenticated token and authorize routes before security and the
+ * {@link Router} see the request: first by remote address, then by client_id.  A rejected request gets a 429
+ * with Retry-After in seconds.
+ * <p>
+ * The remote address is the connection's peer.  When the peer is one of rate-limit.trusted-proxies, the
+ * api-gateway in front of the mediator, it is the right most X-Forwarded-For hop that is not a trusted proxy:
+ * hops further left were written by the caller and can not be trusted.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 10)
+public class RateLimitWebFilter implements WebFilter {
+    private static final String TOKEN_PATH = "/oauth2-token-mediator/token";
+    private static final String AUTHORIZE_PATH = "/oauth2-token-mediator/authorize";
+    private static final Logger LOG = LoggerFactory.getLogger(RateLimitWebFilter.class);
+    private static final String X_FORWARDED_FOR = "X-Forwarded-For";
+    private static final Pattern IP_ADDRESS = Pattern.compile("[0-9.]+|[0-9a-fA-F:.]*:[0-9a-fA-F:.]*");
+    private static final byte[] TOO_MANY_REQUESTS = "{\"error\":\"too_many_requests\"}".getBytes(StandardCharsets.UTF_8);
+
+    private final RateLimiter rateLimiter;
+    private final List<IpAddressMatcher> trustedProxies;
+
+    public RateLimitWebFilter(RateLimiter rateLimiter,
+                              @Value("${rate-limit.trusted-proxies:10.0.0.0/8,172.16.0.0/12,192.168.0.0/16,127.0.0.1,::1}")
+                              List<String> trustedProxies) {
+        this.rateLimiter = rateLimiter;
+        this.trustedProxies = trustedProxies.stream().map(String::trim).filter(proxy -> !proxy.isEmpty())
+                .map(IpAddressMatcher::new).toList();
+        LOG.info("rate limit trusts X-Forwarded-For from {}", trustedProxies);
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        if (!rateLimiter.isEnabled()) {
+            return chain.filter(exchange);
+        }
+        final String path = exchange.getRequest().getPath().value();
+        if (!path.equals(TOKEN_PATH) && !path.equals(AUTHORIZE_PATH)) {
+            return chain.filter(exchange);
+        }
+
+        final String clientAddress = clientAddress(exchange.getRequest());
+        if (clientAddress != null) {
+            long waitNanos = rateLimiter.tryAcquireIp(clientAddress);
+            if (waitNanos > 0) {
+                return tooManyRequests(exchange, waitNanos);
+            }
+        }
+
+        final String clientId = exchange.getRequest().getQueryParams().getFirst("client_id");
+        if (clientId == null) {
+            return chain.filter(exchange);
+        }
+        return rateLimiter.tryAcquireClient(clientId)
+                .flatMap(waitNanos -> waitNanos > 0 ? tooManyRequests(exchange, waitNanos) : chain.filter(exchange));
+    }
+
+    /**
+     * the address of the caller, walking X-Forwarded-For from the right for as long as the hops are trusted proxies
+     */
+    String clientAddress(ServerHttpRequest request) {
+        InetSocketAddress remoteAddress = request.getRemoteAddress();
+        if (remoteAddress == null) {
+            return null;
+        }
+        String address = remoteAddress.getAddress() != null ?
+                remoteAddress.getAddress().getHostAddress() : remoteAddress.getHostString();
+
+        List<String> forwardedFor = request.getHeaders().get(X_FORWARDED_FOR);
+        if (forwardedFor == null) {
+            return address;
+        }
+        List<String> hops = forwardedFor.stream().flatMap(value -> Arrays.stream(value.split(",")))
+                .map(String::trim).filter(hop -> !hop.isEmpty()).toList();
+
+        for (int i = hops.size() - 1; i >= 0 && isTrustedProxy(address); i--) {
+            address = hops.get(i);
+        }
+        return address;
+    }
+
+    private boolean isTrustedProxy(String address) {
+        if (!IP_ADDRESS.matcher(address).matches()) {
+            // a host name or 'unknown' hop, matching it would mean a dns lookup
+            return false;
+        }
+        try {
+            for (IpAddressMatcher trustedProxy : trustedProxies) {
+                if (trustedProxy.matches(address)) {
+                    return true;
+                }
+            }
+        }
+        catch (IllegalArgumentException e) {
+            LOG.debug("not an ip address: {}", address);
+        }
+        return false;
+    }
+
+    private static Mono<Void> tooManyRequests(ServerWebExchange exchange, long waitNanos) {
+        ServerHttpResponse response = exchange.getResponse();
+        response.setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
+        response.getHeaders().set(HttpHeaders.RETRY_AFTER,
+                String.valueOf(Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1))));
+        response.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+        response.getHeaders().setCacheControl("no-store");
+        DataBuffer body = response.bufferFactory().wrap(TOO_MANY_REQUESTS);
+        return response.writeWith(Mono.just(body));
+    }
+}
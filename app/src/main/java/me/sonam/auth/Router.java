@@ -25,6 +25,12 @@ public class Router {
                 handler::initateOauthFlow)
                 .andRoute(POST("/oauth2-token-mediator/token").and(accept(MediaType.APPLICATION_JSON)),
                         handler::getAccessToken)
+                .andRoute(POST("/oauth2-token-mediator/clients").and(contentType(MediaType.APPLICATION_NDJSON)),
+                        handler::importClients)
+                .andRoute(GET("/oauth2-token-mediator/clients").and(accept(MediaType.APPLICATION_NDJSON)),
+                        handler::exportClients)
+                .andRoute(POST("/oauth2-token-mediator/clients/key-rotation").and(accept(MediaType.APPLICATION_JSON)),
+                        handler::rotateClientKeys)
                 .andRoute(PUT("/oauth2-token-mediator/clients").and(accept(MediaType.APPLICATION_JSON)),
                         handler::saveClient)
                 .andRoute(DELETE("/oauth2-token-mediator/clients/{clientId}").and(accept(MediaType.APPLICATION_JSON)),
@@ -0,0 +1,62 @@
+package me.sonam.auth;
+
+import io.r2dbc.spi.ConnectionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.r2dbc.connection.init.ResourceDatabasePopulator;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+/**
+ * Creates our database table and schema from schema.sql.
+ * <p>
+ * With schema-initialization.mode deferred, the default, the statements run in the background from the moment
+ * the connection factory exists so the DDL round trips overlap the rest of startup instead of blocking bean
+ * creation.  The connection pool warm-up waits for them, so the app never reports ready without its table.
+ * eager applies the schema while the bean is created, none skips it, e.g. for the CDS training run.
+ */
+@Component
+public class SchemaInitializer implements InitializingBean {
+    private static final Logger LOG = LoggerFactory.getLogger(SchemaInitializer.class);
+
+    private final ConnectionFactory connectionFactory;
+    private final String mode;
+    private Mono<Void> initialized = Mono.empty();
+
+    public SchemaInitializer(ConnectionFactory connectionFactory,
+                             @Value("${schema-initialization.mode:deferred}") String mode) {
+        this.connectionFactory = connectionFactory;
+        this.mode = mode;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if ("none".equals(mode)) {
+            LOG.info("schema initialization disabled");
+            return;
+        }
+
+        final long start = System.nanoTime();
+        initialized = new ResourceDatabasePopulator(new ClassPathResource("schema.sql")).populate(connectionFactory)
+                .doOnSuccess(unused -> LOG.info("schema initialized in {} ms", (System.nanoTime() - start) / 1_000_000))
+                .doOnError(throwable -> LOG.error("schema initialization failed: {}", throwable.getMessage()))
+                .cache();
+
+        if ("eager".equals(mode)) {
+            initialized.block();
+        }
+        else {
+            initialized.subscribe(unused -> {}, throwable -> {});
+        }
+    }
+
+    /**
+     * completes once schema.sql was applied, errors when it failed
+     */
+    public Mono<Void> initialized() {
+        return initialized;
+    }
+}
@@ -0,0 +1,33 @@
+package me.sonam.auth;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.stereotype.Component;
+
+/**
+ * Stops the jvm right after the application context refreshed when startup.exit-after-refresh is set.  The
+ * image build starts the app this way with -XX:ArchiveClassesAtExit, so the class data sharing archive holds
+ * every class startup loads without a database or issuer being reachable.
+ */
+@Component
+public class TrainingRunExit implements ApplicationListener<ContextRefreshedEvent> {
+    private static final Logger LOG = LoggerFactory.getLogger(TrainingRunExit.class);
+
+    @Value("${startup.exit-after-refresh:false}")
+    private boolean exitAfterRefresh;
+
+    @Override
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+        if (!exitAfterRefresh) {
+            return;
+        }
+        ApplicationContext applicationContext = event.getApplicationContext();
+        LOG.info("training run, exiting after refresh");
+        System.exit(SpringApplication.exit(applicationContext, () -> 0));
+    }
+}
@@ -0,0 +1,92 @@
+package me.sonam.auth;
+
+import io.netty.channel.ChannelOption;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+
+/**
+ * Builds the one WebClient used for calling the issuer token endpoint.  The client is backed by a dedicated
+ * connection pool so bursts on /token reuse warm connections instead of the default pool settings.
+ */
+@Configuration
+public class WebClientConfiguration {
+    private static final Logger LOG = LoggerFactory.getLogger(WebClientConfiguration.class);
+
+    @Value("${authorization.root}")
+    private String authorizationRoot;
+
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider issuerConnectionProvider(
+            @Value("${issuer.http-client.max-connections:200}") int maxConnections,
+            @Value("${issuer.http-client.pending-acquire-max-count:1000}") int pendingAcquireMaxCount,
+            @Value("${issuer.http-client.pending-acquire-timeout:PT5S}") Duration pendingAcquireTimeout,
+            @Value("${issuer.http-client.max-idle-time:PT30S}") Duration maxIdleTime,
+            @Value("${issuer.http-client.max-life-time:PT5M}") Duration maxLifeTime,
+            @Value("${issuer.http-client.evict-in-background:PT30S}") Duration evictInBackground) {
+        LOG.info("issuer connection pool maxConnections: {}, pendingAcquireMaxCount: {}, maxIdleTime: {}",
+                maxConnections, pendingAcquireMaxCount, maxIdleTime);
+
+        // maxIdleTime should stay below the issuer keep-alive timeout so we never pick a connection the
+        // server is about to close
+        return ConnectionProvider.builder("issuer")
+                .maxConnections(maxConnections)
+                .pendingAcquireMaxCount(pendingAcquireMaxCount)
+                .pendingAcquireTimeout(pendingAcquireTimeout)
+                .maxIdleTime(maxIdleTime)
+                .maxLifeTime(maxLifeTime)
+                .evictInBackground(evictInBackground)
+                .metrics(true)
+                .build();
+    }
+
+    @Bean("issuerWebClient")
+    public WebClient issuerWebClient(WebClient.Builder webClientBuilder, ConnectionProvider issuerConnectionProvider,
+                                     @Value("${issuer.http-client.connect-timeout:PT2S}") Duration connectTimeout,
+                                     @Value("${issuer.http-client.response-timeout:PT10S}") Duration responseTimeout,
+                                     @Value("${issuer.http-client.keep-alive:true}") boolean keepAlive,
+                                     @Value("${issuer.http-client.http2:false}") boolean http2) {
+        HttpClient httpClient = HttpClient.create(issuerConnectionProvider)
+                .protocol(protocols(http2))
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) connectTimeout.toMillis())
+                .option(ChannelOption.SO_KEEPALIVE, keepAlive)
+                .keepAlive(keepAlive)
+                .responseTimeout(responseTimeout)
+                .metrics(true, WebClientConfiguration::uriTagValue);
+
+        LOG.info("issuer webClient connectTimeout: {}, responseTimeout: {}, http2: {}",
+                connectTimeout, responseTimeout, http2);
+        return webClientBuilder.clientConnector(new ReactorClientHttpConnector(httpClient)).build();
+    }
+
+    /**
+     * with http2 enabled the client negotiates h2 (ALPN) for https issuers or h2c for plain http issuers
+     * and falls back to http/1.1 when the issuer does not support it.
+     */
+    private HttpProtocol[] protocols(boolean http2) {
+        if (!http2) {
+            return new HttpProtocol[]{HttpProtocol.HTTP11};
+        }
+        if (authorizationRoot.startsWith("https")) {
+            return new HttpProtocol[]{HttpProtocol.H2, HttpProtocol.HTTP11};
+        }
+        return new HttpProtocol[]{HttpProtocol.H2C, HttpProtocol.HTTP11};
+    }
+
+    /**
+     * drop the query string from the uri tag to keep the client metrics cardinality bounded
+     */
+    private static String uriTagValue(String uri) {
+        int index = uri.indexOf('?');
+        return index < 0 ? uri : uri.substring(0, index);
+    }
+}
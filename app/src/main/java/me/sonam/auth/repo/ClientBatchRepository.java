@@ -0,0 +1,170 @@
+package me.sonam.auth.repo;
+
+import io.r2dbc.spi.Result;
+import io.r2dbc.spi.Statement;
+import me.sonam.auth.repo.entity.Client;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * Batched Client writes that go through the R2DBC {@link Statement#add()} api, so a whole batch of rows
+ * is sent with one statement execution instead of one round trip per client.
+ * <p>
+ * Postgres gets an INSERT .. ON CONFLICT upsert, H2 (used by the tests) the equivalent MERGE .. USING.
+ * Single client saves use the same statement so concurrent saves of one clientId can not hit a duplicate key.
+ */
+@Repository
+public class ClientBatchRepository {
+    private static final Logger LOG = LoggerFactory.getLogger(ClientBatchRepository.class);
+
+    private static final String POSTGRES_UPSERT = "INSERT INTO Client (client_id, client_secret, salt, format_version, key_id, " +
+            "rate_limit_per_second, rate_limit_burst) VALUES ($1, $2, $3, $4, $5, $6, $7) " +
+            "ON CONFLICT (client_id) DO UPDATE SET client_secret = EXCLUDED.client_secret, salt = EXCLUDED.salt, " +
+            "format_version = EXCLUDED.format_version, key_id = EXCLUDED.key_id, " +
+            "rate_limit_per_second = EXCLUDED.rate_limit_per_second, rate_limit_burst = EXCLUDED.rate_limit_burst";
+
+    private static final String H2_UPSERT = "MERGE INTO Client t USING (SELECT CAST($1 AS VARCHAR) client_id, " +
+            "CAST($2 AS VARCHAR) client_secret, CAST($3 AS VARCHAR) salt, CAST($4 AS INT) format_version, " +
+            "CAST($5 AS VARCHAR) key_id, CAST($6 AS INT) rate_limit_per_second, CAST($7 AS INT) rate_limit_burst) s " +
+            "ON t.client_id = s.client_id " +
+            "WHEN MATCHED THEN UPDATE SET client_secret = s.client_secret, salt = s.salt, " +
+            "format_version = s.format_version, key_id = s.key_id, rate_limit_per_second = s.rate_limit_per_second, " +
+            "rate_limit_burst = s.rate_limit_burst " +
+            "WHEN NOT MATCHED THEN INSERT (client_id, client_secret, salt, format_version, key_id, " +
+            "rate_limit_per_second, rate_limit_burst) VALUES (s.client_id, s.client_secret, s.salt, " +
+            "s.format_version, s.key_id, s.rate_limit_per_second, s.rate_limit_burst)";
+
+    private static final String REWRITE_SECRET = "UPDATE Client SET client_secret = $1, salt = NULL, " +
+            "format_version = $2, key_id = $3 WHERE client_id = $4 AND client_secret = $5";
+
+    private static final String RETURNING = " RETURNING client_id";
+
+    private final DatabaseClient databaseClient;
+    private final boolean postgres;
+    private final String upsertSql;
+
+    public ClientBatchRepository(DatabaseClient databaseClient) {
+        this.databaseClient = databaseClient;
+        this.postgres = isPostgres(databaseClient);
+        this.upsertSql = postgres ? POSTGRES_UPSERT : H2_UPSERT;
+        LOG.info("client upsert statement: {}", upsertSql);
+    }
+
+    /**
+     * inserts or updates one client in a single round trip, its clientSecret must already be encrypted.
+     * @return the clientId of the written row
+     */
+    public Mono<String> upsert(Client client) {
+        if (postgres) {
+            return bind(databaseClient.sql(POSTGRES_UPSERT + RETURNING), client)
+                    .map(row -> row.get("client_id", String.class))
+                    .one();
+        }
+        // H2 has no RETURNING clause, the MERGE always touches exactly the one row
+        return bind(databaseClient.sql(H2_UPSERT), client)
+                .fetch().rowsUpdated()
+                .thenReturn(client.getClientId());
+    }
+
+    /**
+     * inserts or updates all clients, their clientSecret must already be encrypted.
+     * @return the updated row count of each binding set
+     */
+    public Flux<Long> upsertAll(List<Client> clients) {
+        if (clients.isEmpty()) {
+            return Flux.empty();
+        }
+
+        return databaseClient.inConnectionMany(connection -> {
+            Statement statement = connection.createStatement(upsertSql);
+
+            for (int i = 0; i < clients.size(); i++) {
+                if (i > 0) {
+                    statement.add();
+                }
+                Client client = clients.get(i);
+                statement.bind(0, client.getClientId());
+                bind(statement, 1, client.getClientSecret());
+                bind(statement, 2, client.getSalt());
+                statement.bind(3, client.getFormatVersion());
+                statement.bind(4, client.getKeyId());
+                bind(statement, 5, client.getRateLimitPerSecond());
+                bind(statement, 6, client.getRateLimitBurst());
+            }
+            return Flux.from(statement.execute()).flatMap(Result::getRowsUpdated);
+        });
+    }
+
+    /**
+     * rewrites the clientSecret of each client whose row still holds the expected secret, rows changed since
+     * they were read are left alone.  Both the rotation job and the upgrade on read go through here.
+     * @return the number of rows rewritten
+     */
+    public Mono<Long> rewriteSecrets(List<SecretRewrite> rewrites) {
+        if (rewrites.isEmpty()) {
+            return Mono.just(0L);
+        }
+
+        return databaseClient.inConnectionMany(connection -> {
+            Statement statement = connection.createStatement(REWRITE_SECRET);
+
+            for (int i = 0; i < rewrites.size(); i++) {
+                if (i > 0) {
+                    statement.add();
+                }
+                SecretRewrite rewrite = rewrites.get(i);
+                statement.bind(0, rewrite.clientSecret());
+                statement.bind(1, rewrite.formatVersion());
+                statement.bind(2, rewrite.keyId());
+                statement.bind(3, rewrite.clientId());
+                statement.bind(4, rewrite.expectedClientSecret());
+            }
+            return Flux.from(statement.execute()).flatMap(Result::getRowsUpdated);
+        }).reduce(0L, Long::sum);
+    }
+
+    /**
+     * a re-encrypted clientSecret, written only while the row still holds expectedClientSecret
+     */
+    public record SecretRewrite(String clientId, String clientSecret, int formatVersion, String keyId,
+                                String expectedClientSecret) {
+    }
+
+    private static DatabaseClient.GenericExecuteSpec bind(DatabaseClient.GenericExecuteSpec spec, Client client) {
+        spec = spec.bind(0, client.getClientId());
+        spec = client.getClientSecret() == null ? spec.bindNull(1, String.class) : spec.bind(1, client.getClientSecret());
+        spec = client.getSalt() == null ? spec.bindNull(2, String.class) : spec.bind(2, client.getSalt());
+        spec = spec.bind(3, client.getFormatVersion()).bind(4, client.getKeyId());
+        spec = client.getRateLimitPerSecond() == null ? spec.bindNull(5, Integer.class) :
+                spec.bind(5, client.getRateLimitPerSecond());
+        return client.getRateLimitBurst() == null ? spec.bindNull(6, Integer.class) : spec.bind(6, client.getRateLimitBurst());
+    }
+
+    private static void bind(Statement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index, String.class);
+        }
+        else {
+            statement.bind(index, value);
+        }
+    }
+
+    private static void bind(Statement statement, int index, Integer value) {
+        if (value == null) {
+            statement.bindNull(index, Integer.class);
+        }
+        else {
+            statement.bind(index, value);
+        }
+    }
+
+    private static boolean isPostgres(DatabaseClient databaseClient) {
+        return databaseClient.getConnectionFactory().getMetadata().getName().toLowerCase().contains("postgres");
+    }
+}
@@ -1,9 +1,25 @@
 package me.sonam.auth.repo;
 
 import me.sonam.auth.repo.entity.Client;
+import org.springframework.data.r2dbc.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 public interface ClientRepository extends ReactiveCrudRepository<Client, String> {
-    Mono<Integer> countByClientId(String clientId);
+    /**
+     * keyset page of the clients not yet stored in the current format under the given key, ordered by clientId
+     */
+    @Query("SELECT * FROM Client WHERE client_id > :afterClientId " +
+            "AND (format_version IS NULL OR format_version <> :formatVersion OR COALESCE(key_id, 'default') <> :keyId) " +
+            "ORDER BY client_id LIMIT :limit")
+    Flux<Client> findPageNotEncryptedWith(@Param("formatVersion") int formatVersion,
+                                          @Param("keyId") String keyId,
+                                          @Param("afterClientId") String afterClientId,
+                                          @Param("limit") int limit);
+
+    @Query("SELECT COUNT(*) FROM Client " +
+            "WHERE format_version IS NULL OR format_version <> :formatVersion OR COALESCE(key_id, 'default') <> :keyId")
+    Mono<Long> countNotEncryptedWith(@Param("formatVersion") int formatVersion, @Param("keyId") String keyId);
 }
@@ -1,18 +1,15 @@
 package me.sonam.auth.repo.entity;
 
-import me.sonam.auth.repo.ClientRepository;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import me.sonam.auth.service.ClientSecretCipher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.annotation.Transient;
 import org.springframework.data.domain.Persistable;
-import org.springframework.security.crypto.encrypt.Encryptors;
-import org.springframework.security.crypto.encrypt.TextEncryptor;
-import org.springframework.security.crypto.keygen.KeyGenerators;
 import reactor.core.publisher.Mono;
 
-import java.time.Instant;
-
 /**
  * Oauth Client clientId and secret
  */
@@ -24,21 +21,18 @@ public class Client implements Persistable<String> {
     private String clientId;
     private String clientSecret;
     private String salt;
+    private Integer formatVersion;
+    private String keyId;
+    private Integer rateLimitPerSecond;
+    private Integer rateLimitBurst;
 
     @Transient
     private boolean isNew;
 
-    @Transient
-    private ClientRepository clientRepository;
-
     public Client() {
 
     }
 
-    public void setClientRepository(ClientRepository clientRepository) {
-        this.clientRepository = clientRepository;
-    }
-
     public Client(String clientId, String clientSecret) {
         this.clientId = clientId;
         this.clientSecret = clientSecret;
@@ -62,36 +56,114 @@ public class Client implements Persistable<String> {
         return this.clientSecret;
     }
 
-    public Mono<Client> save(String password) {
-        LOG.info("saving client with salt generation and encrypted clientSecret");
-        this.salt = KeyGenerators.string().generateKey();
+    @JsonIgnore
+    public String getSalt() {
+        return this.salt;
+    }
+
+    /**
+     * {@link ClientSecretCipher#FORMAT_GCM} or {@link ClientSecretCipher#FORMAT_LEGACY}, rows written before
+     * the column existed have no value and are legacy
+     */
+    @JsonIgnore
+    public int getFormatVersion() {
+        return formatVersion == null ? ClientSecretCipher.FORMAT_LEGACY : formatVersion;
+    }
+
+    @JsonIgnore
+    public boolean isLegacyFormat() {
+        return getFormatVersion() == ClientSecretCipher.FORMAT_LEGACY;
+    }
+
+    /**
+     * id of the key ring key the clientSecret is encrypted with, rows written before key rotation have none
+     * and use the default key
+     */
+    @JsonIgnore
+    public String getKeyId() {
+        return keyId == null ? ClientSecretCipher.DEFAULT_KEY_ID : keyId;
+    }
+
+    /**
+     * requests per second allowed on token and authorize for this client, null for the default limit
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Integer getRateLimitPerSecond() {
+        return rateLimitPerSecond;
+    }
+
+    /**
+     * requests allowed at once above the per second rate, null for the default burst
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Integer getRateLimitBurst() {
+        return rateLimitBurst;
+    }
+
+    public void setRateLimit(Integer rateLimitPerSecond, Integer rateLimitBurst) {
+        this.rateLimitPerSecond = rateLimitPerSecond;
+        this.rateLimitBurst = rateLimitBurst;
+    }
+
+    /**
+     * whether the clientSecret is stored in the current format under the primary key
+     */
+    public boolean isEncryptedWithPrimaryKey(ClientSecretCipher clientSecretCipher) {
+        return !isLegacyFormat() && getKeyId().equals(clientSecretCipher.primaryKeyId());
+    }
+
+    /**
+     * the authorization-server sends secrets with their password encoder id, e.g. '{noop}secret', only
+     * the secret itself is stored
+     */
+    public void removePasswordEncoderPrefix() {
+        if (clientSecret != null && clientSecret.startsWith("{")) {
+            clientSecret = clientSecret.substring(clientSecret.indexOf("}") + 1);
+        }
+    }
 
-        TextEncryptor textEncryptor = Encryptors.text(password, this.salt);
-        this.clientSecret = textEncryptor.encrypt(this.clientSecret);
-        LOG.info("encryption done, saving: clientId: {}, clientSecret: {}", clientId, clientSecret);
-        return clientRepository.save(this);
+    /**
+     * encrypts the clientSecret in place with the current envelope format.  The work is deferred until
+     * subscription.
+     */
+    public Mono<Client> encryptClientSecret(ClientSecretCipher clientSecretCipher) {
+        return Mono.fromCallable(() -> {
+            LOG.debug("encrypting clientSecret for clientId: {}", clientId);
+            this.clientSecret = clientSecretCipher.encrypt(clientId, this.clientSecret);
+            this.salt = null;
+            this.formatVersion = ClientSecretCipher.FORMAT_GCM;
+            this.keyId = clientSecretCipher.primaryKeyId();
+            return this;
+        });
     }
 
-   public Mono<String> decryptClientSecret(String password) {
-        LOG.info("decrypt clientSecret with password");
-        TextEncryptor textEncryptor = Encryptors.text(password, this.salt);
-        var decryptedClientSecret = textEncryptor.decrypt(this.clientSecret);
-        LOG.info("clientSecret: {}, decryptedClientSecret: {}", clientSecret, decryptedClientSecret);
-        return Mono.just(decryptedClientSecret);
+    /**
+     * decrypts the clientSecret in whichever format it is stored, deferred until subscription like
+     * {@link #encryptClientSecret(ClientSecretCipher)}.  Legacy rows pay a key derivation, callers should
+     * run those off the event loop.
+     */
+    public Mono<String> decryptClientSecret(ClientSecretCipher clientSecretCipher) {
+        return Mono.fromCallable(() -> {
+            LOG.debug("decrypt clientSecret in format {}", getFormatVersion());
+            if (isLegacyFormat()) {
+                return clientSecretCipher.decryptLegacy(this.clientSecret, this.salt);
+            }
+            return clientSecretCipher.decrypt(getKeyId(), clientId, this.clientSecret);
+        });
     }
 
     public void setClientSecret(String clientSecret) {
         this.clientSecret = clientSecret;
     }
 
+    /**
+     * leaves out the secret and salt so a logged client never leaks them
+     */
     @Override
     public String toString() {
         return "Client{" +
                 "clientId='" + clientId + '\'' +
-                ", clientSecret='" + clientSecret + '\'' +
-                ", salt='" + salt + '\'' +
                 ", isNew=" + isNew +
-                ", clientRepository=" + clientRepository +
                 '}';
     }
 }
@@ -0,0 +1,110 @@
+package me.sonam.auth.service;
+
+import me.sonam.auth.repo.ClientBatchRepository;
+import me.sonam.auth.repo.ClientRepository;
+import me.sonam.auth.repo.entity.Client;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming bulk import and export of clients for seeding and migrating environments.
+ * Secrets are encrypted with the {@link ClientSecretCipher}, exports decrypt with bounded concurrency and
+ * imports are written in batches through {@link ClientBatchRepository}.
+ */
+@Service
+public class ClientBulkService {
+    private static final Logger LOG = LoggerFactory.getLogger(ClientBulkService.class);
+
+    @Value("${client-bulk.batch-size:500}")
+    private int batchSize;
+
+    @Value("${client-bulk.concurrency:8}")
+    private int concurrency;
+
+    @Autowired
+    private ClientRepository clientRepository;
+
+    @Autowired
+    private ClientBatchRepository clientBatchRepository;
+
+    @Autowired
+    private ClientSecretCipher clientSecretCipher;
+
+    @Autowired
+    private TokenMediatorService tokenMediatorService;
+
+    @Autowired
+    private ClientChangeNotifier clientChangeNotifier;
+
+    /**
+     * upserts every client in the stream and emits one result per client in the input order
+     */
+    public Flux<ClientImportResult> importClients(Flux<Client> clients) {
+        return clients
+                .flatMapSequential(this::encrypt, concurrency)
+                .buffer(batchSize)
+                .concatMap(this::writeBatch);
+    }
+
+    /**
+     * streams all clients with their decrypted clientSecret
+     */
+    public Flux<Client> exportClients() {
+        LOG.info("export clients");
+        return clientRepository.findAll()
+                .flatMapSequential(client -> tokenMediatorService.decryptClientSecret(client)
+                        .map(decryptedSecret -> {
+                            Client decrypted = new Client(client.getClientId(), decryptedSecret);
+                            decrypted.setRateLimit(client.getRateLimitPerSecond(), client.getRateLimitBurst());
+                            return decrypted;
+                        }), concurrency);
+    }
+
+    private Mono<ImportItem> encrypt(Client client) {
+        if (client.getClientId() == null || client.getClientSecret() == null) {
+            return Mono.just(new ImportItem(client, "clientId and clientSecret are required"));
+        }
+
+        Client newClient = new Client(client.getClientId(), client.getClientSecret());
+        newClient.setRateLimit(client.getRateLimitPerSecond(), client.getRateLimitBurst());
+        newClient.removePasswordEncoderPrefix();
+        return newClient.encryptClientSecret(clientSecretCipher)
+                .map(encrypted -> new ImportItem(encrypted, null))
+                .onErrorResume(throwable -> Mono.just(new ImportItem(newClient, throwable.getMessage())));
+    }
+
+    private Flux<ClientImportResult> writeBatch(List<ImportItem> items) {
+        List<Client> clients = new ArrayList<>(items.size());
+        for (ImportItem item : items) {
+            if (item.error() == null) {
+                clients.add(item.client());
+            }
+        }
+
+        return clientBatchRepository.upsertAll(clients)
+                .thenMany(Flux.fromIterable(clients)
+                        .concatMap(client -> clientChangeNotifier.publish(ClientChangedEvent.saved(client.getClientId()))))
+                .thenMany(Flux.fromIterable(items).map(item -> item.error() == null ?
+                        ClientImportResult.saved(item.client().getClientId()) :
+                        ClientImportResult.failed(item.client().getClientId(), item.error())))
+                .onErrorResume(throwable -> {
+                    LOG.error("failed to write client batch of {}: {}", clients.size(), throwable.getMessage());
+                    return Flux.fromIterable(items).map(item -> ClientImportResult.failed(
+                            item.client().getClientId(), item.error() != null ? item.error() : throwable.getMessage()));
+                });
+    }
+
+    /**
+     * a client ready to be written or the reason it can not be
+     */
+    private record ImportItem(Client client, String error) {
+    }
+}
@@ -0,0 +1,169 @@
+package me.sonam.auth.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.r2dbc.postgresql.api.PostgresqlConnection;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.Wrapped;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Cluster-wide client change channel so every replica drops cached client data as soon as a client is saved
+ * or deleted anywhere.
+ * <p>
+ * A change is published as a {@link ClientChangedEvent} on this replica right away, for read-your-write, and
+ * on Postgres also sent with pg_notify.  Every replica keeps one connection LISTENing on the channel and
+ * republishes what it receives as local events.  When the listening connection drops it reconnects with
+ * backoff and publishes {@link ClientChangedEvent#all()}, notifications missed in between are lost otherwise.
+ * <p>
+ * Other databases, H2 in the tests, have no NOTIFY: there the local event is the whole channel.
+ */
+@Component
+public class ClientChangeNotifier implements InitializingBean, DisposableBean {
+    private static final Logger LOG = LoggerFactory.getLogger(ClientChangeNotifier.class);
+
+    private final String channel;
+    private final DatabaseClient databaseClient;
+    private final ApplicationEventPublisher applicationEventPublisher;
+    private final boolean postgres;
+    private final Counter sentCounter;
+    private final Counter receivedCounter;
+    private final AtomicBoolean listening = new AtomicBoolean();
+    private Disposable listener;
+
+    public ClientChangeNotifier(@Value("${client-change.channel:client_changed}") String channel,
+                                DatabaseClient databaseClient,
+                                ApplicationEventPublisher applicationEventPublisher,
+                                MeterRegistry meterRegistry) {
+        this.channel = channel;
+        this.databaseClient = databaseClient;
+        this.applicationEventPublisher = applicationEventPublisher;
+        this.postgres = databaseClient.getConnectionFactory().getMetadata().getName().toLowerCase().contains("postgres");
+        this.sentCounter = Counter.builder("client.change.notifications").tag("direction", "sent")
+                .register(meterRegistry);
+        this.receivedCounter = Counter.builder("client.change.notifications").tag("direction", "received")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!postgres) {
+            LOG.info("no LISTEN/NOTIFY on this database, client changes are only published on this replica");
+            return;
+        }
+
+        LOG.info("listening for client changes on channel {}", channel);
+        listener = Flux.usingWhen(databaseClient.getConnectionFactory().create(), this::listen, Connection::close)
+                .doOnTerminate(() -> listening.set(false))
+                .doOnError(throwable -> LOG.warn("client change listener failed, reconnecting: {}", throwable.getMessage()))
+                // the backoff starts over once a connection is listening again
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofSeconds(1)).maxBackoff(Duration.ofSeconds(30))
+                        .transientErrors(true))
+                .repeat()
+                .subscribe(this::received);
+    }
+
+    /**
+     * publishes the change on this replica and notifies the other replicas, a failed notify is logged and
+     * does not fail the save or delete
+     */
+    public Mono<Void> publish(ClientChangedEvent event) {
+        applicationEventPublisher.publishEvent(event);
+        if (!postgres) {
+            return Mono.empty();
+        }
+
+        return databaseClient.sql("SELECT pg_notify($1, $2)")
+                .bind(0, channel)
+                .bind(1, event.type() + ":" + event.clientId())
+                .fetch().rowsUpdated()
+                .doOnSuccess(rows -> sentCounter.increment())
+                .onErrorResume(throwable -> {
+                    LOG.warn("failed to notify change of clientId: {}: {}", event.clientId(), throwable.getMessage());
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    /**
+     * whether changes made on other replicas reach this one, always true where there is no NOTIFY
+     */
+    public boolean isListening() {
+        return !postgres || listening.get();
+    }
+
+    private Flux<ClientChangedEvent> listen(Connection connection) {
+        PostgresqlConnection postgresqlConnection = unwrap(connection);
+
+        return postgresqlConnection.createStatement("LISTEN " + channel).execute()
+                .flatMap(result -> result.getRowsUpdated())
+                .thenMany(Flux.defer(() -> {
+                    listening.set(true);
+                    // anything sent while we were not listening is gone, start from a clean cache
+                    return Flux.concat(Mono.just(ClientChangedEvent.all()), postgresqlConnection.getNotifications()
+                            .filter(notification -> channel.equals(notification.getName()) &&
+                                    notification.getParameter() != null)
+                            .flatMap(notification -> Mono.justOrEmpty(parse(notification.getParameter()))));
+                }));
+    }
+
+    private void received(ClientChangedEvent event) {
+        LOG.debug("received client change {}", event);
+        if (!event.isAll()) {
+            receivedCounter.increment();
+        }
+        applicationEventPublisher.publishEvent(event);
+    }
+
+    /**
+     * the change in a TYPE:clientId payload, null for anything else so a stray notify does not stop the listener
+     */
+    private static ClientChangedEvent parse(String payload) {
+        int separator = payload.indexOf(':');
+        if (separator > 0) {
+            try {
+                ClientChangedEvent.Type type = ClientChangedEvent.Type.valueOf(payload.substring(0, separator));
+                return new ClientChangedEvent(payload.substring(separator + 1), type);
+            }
+            catch (IllegalArgumentException e) {
+                // not a change type
+            }
+        }
+        LOG.warn("ignoring malformed client change notification: {}", payload);
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static PostgresqlConnection unwrap(Connection connection) {
+        Connection current = connection;
+        while (!(current instanceof PostgresqlConnection) && current instanceof Wrapped<?>) {
+            current = ((Wrapped<Connection>) current).unwrap();
+        }
+        if (!(current instanceof PostgresqlConnection)) {
+            throw new IllegalStateException("not a postgres connection: " + connection.getClass());
+        }
+        return (PostgresqlConnection) current;
+    }
+
+    @Override
+    public void destroy() {
+        if (listener != null) {
+            listener.dispose();
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package me.sonam.auth.service;
+
+/**
+ * A client was saved or deleted on this or another replica, caches of client data drop the clientId.
+ * A null clientId means every client may have changed, e.g. after change notifications were missed.
+ */
+public record ClientChangedEvent(String clientId, Type type) {
+
+    public enum Type {
+        SAVED, DELETED, ALL
+    }
+
+    public static ClientChangedEvent saved(String clientId) {
+        return new ClientChangedEvent(clientId, Type.SAVED);
+    }
+
+    public static ClientChangedEvent deleted(String clientId) {
+        return new ClientChangedEvent(clientId, Type.DELETED);
+    }
+
+    public static ClientChangedEvent all() {
+        return new ClientChangedEvent(null, Type.ALL);
+    }
+
+    public boolean isAll() {
+        return type == Type.ALL;
+    }
+}
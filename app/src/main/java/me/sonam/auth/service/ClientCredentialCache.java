@@ -0,0 +1,75 @@
+package me.sonam.auth.service;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.function.Function;
+
+/**
+ * Bounded, TTL based cache of the precomputed Basic-auth header value per clientId.
+ * A hit skips both the repository lookup and the client secret key derivation.
+ */
+@Component
+public class ClientCredentialCache {
+    private static final Logger LOG = LoggerFactory.getLogger(ClientCredentialCache.class);
+
+    private final AsyncCache<String, String> cache;
+
+    public ClientCredentialCache(@Value("${client-credential-cache.max-size:10000}") long maxSize,
+                                 @Value("${client-credential-cache.ttl:PT10M}") Duration ttl,
+                                 MeterRegistry meterRegistry) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .buildAsync();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "client.credentials");
+        LOG.info("client credential cache with maxSize: {}, ttl: {}", maxSize, ttl);
+    }
+
+    /**
+     * returns the cached Basic-auth header value for clientId or loads it with the loader.
+     * Concurrent misses for the same clientId share one load and failed loads are not cached.
+     * Cancellation is suppressed so one cancelled caller does not cancel the shared load.
+     */
+    public Mono<String> get(String clientId, Function<String, Mono<String>> loader) {
+        return Mono.fromFuture(() -> cache.get(clientId, (key, executor) -> loader.apply(key).toFuture()), true);
+    }
+
+    public void invalidate(String clientId) {
+        LOG.debug("invalidate cached credentials for clientId: {}", clientId);
+        cache.synchronous().invalidate(clientId);
+    }
+
+    /**
+     * drops the changed client, or every client, when it was saved or deleted on any replica
+     */
+    @EventListener
+    public void onClientChanged(ClientChangedEvent event) {
+        if (event.isAll()) {
+            LOG.debug("invalidate all cached credentials");
+            cache.synchronous().invalidateAll();
+        }
+        else {
+            invalidate(event.clientId());
+        }
+    }
+
+    public long estimatedSize() {
+        return cache.synchronous().estimatedSize();
+    }
+
+    public CacheStats stats() {
+        return cache.synchronous().stats();
+    }
+}
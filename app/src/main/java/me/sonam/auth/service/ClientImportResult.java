@@ -0,0 +1,15 @@
+package me.sonam.auth.service;
+
+/**
+ * Per client outcome of a bulk import, streamed back to the caller as one ndjson line per client.
+ */
+public record ClientImportResult(String clientId, String status, String error) {
+
+    public static ClientImportResult saved(String clientId) {
+        return new ClientImportResult(clientId, "saved", null);
+    }
+
+    public static ClientImportResult failed(String clientId, String error) {
+        return new ClientImportResult(clientId, "failed", error);
+    }
+}
@@ -0,0 +1,179 @@
+package me.sonam.auth.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import me.sonam.auth.repo.ClientBatchRepository;
+import me.sonam.auth.repo.ClientRepository;
+import me.sonam.auth.repo.entity.Client;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Background re-encryption of every client secret not yet stored in the current format under the primary
+ * key, for rotating the master key without downtime: add the new key to client-secret.keys, make it the
+ * primary and restart, the job then moves every row over while the old key keeps decrypting.
+ * <p>
+ * Rows are read in keyset pages ordered by clientId and each page is written back with one batched,
+ * conditional UPDATE.  Only rows that still need re-encryption are selected, so a job that was stopped
+ * resumes where it left off on the next run.  The crypto runs on its own single thread and the job is paced
+ * to rows-per-second, token requests keep the crypto executor and most of the connection pool to themselves.
+ * <p>
+ * Progress is published as client.secret.rotation.* meters.
+ */
+@Service
+public class ClientKeyRotationJob implements DisposableBean {
+    private static final Logger LOG = LoggerFactory.getLogger(ClientKeyRotationJob.class);
+
+    @Value("${client-secret.rotation.on-startup:true}")
+    private boolean onStartup;
+
+    @Value("${client-secret.rotation.page-size:200}")
+    private int pageSize;
+
+    @Value("${client-secret.rotation.rows-per-second:500}")
+    private int rowsPerSecond;
+
+    @Autowired
+    private ClientRepository clientRepository;
+
+    @Autowired
+    private ClientBatchRepository clientBatchRepository;
+
+    @Autowired
+    private ClientSecretCipher clientSecretCipher;
+
+    private final Scheduler scheduler = Schedulers.newSingle("key-rotation", true);
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicLong pending = new AtomicLong();
+    private final Counter rewrittenCounter;
+    private final Counter failedCounter;
+    private volatile Disposable disposable;
+
+    public ClientKeyRotationJob(MeterRegistry meterRegistry) {
+        Gauge.builder("client.secret.rotation.pending", pending, AtomicLong::get)
+                .description("client secrets left to re-encrypt by the running key rotation")
+                .register(meterRegistry);
+        Gauge.builder("client.secret.rotation.running", running, value -> value.get() ? 1 : 0)
+                .register(meterRegistry);
+        this.rewrittenCounter = Counter.builder("client.secret.rotation.rewritten")
+                .description("client secrets re-encrypted under the primary key")
+                .register(meterRegistry);
+        this.failedCounter = Counter.builder("client.secret.rotation.failed")
+                .description("client secrets that could not be decrypted with the key ring")
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (onStartup) {
+            start();
+        }
+    }
+
+    /**
+     * starts the job in the background
+     * @return false when it is already running
+     */
+    public boolean start() {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+
+        final String primaryKeyId = clientSecretCipher.primaryKeyId();
+        disposable = clientRepository.countNotEncryptedWith(ClientSecretCipher.FORMAT_GCM, primaryKeyId)
+                .doOnNext(count -> {
+                    pending.set(count);
+                    LOG.info("{} client secrets to re-encrypt with key {}", count, primaryKeyId);
+                })
+                .flatMap(count -> count == 0 ? Mono.just(0L) : rotatePages("", 0L))
+                .doFinally(signalType -> running.set(false))
+                .subscribe(count -> LOG.info("key rotation done, re-encrypted {} client secrets", count),
+                        throwable -> LOG.error("key rotation stopped, it resumes on the next run: {}",
+                                throwable.getMessage()));
+        return true;
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    public long pending() {
+        return pending.get();
+    }
+
+    private Mono<Long> rotatePages(String afterClientId, long total) {
+        return clientRepository.findPageNotEncryptedWith(ClientSecretCipher.FORMAT_GCM,
+                        clientSecretCipher.primaryKeyId(), afterClientId, pageSize)
+                .collectList()
+                .flatMap(page -> {
+                    if (page.isEmpty()) {
+                        return Mono.just(total);
+                    }
+                    final String lastClientId = page.get(page.size() - 1).getClientId();
+
+                    return rewritePage(page)
+                            .delayUntil(count -> Mono.delay(pacing(page.size())))
+                            .flatMap(count -> page.size() < pageSize ? Mono.just(total + count) :
+                                    rotatePages(lastClientId, total + count));
+                });
+    }
+
+    /**
+     * re-encrypts a page on the rotation thread, rows that do not decrypt are counted and skipped
+     */
+    private Mono<Long> rewritePage(List<Client> page) {
+        return Flux.fromIterable(page)
+                .concatMap(client -> {
+                    final String previousClientSecret = client.getClientSecret();
+                    return client.decryptClientSecret(clientSecretCipher)
+                            .subscribeOn(scheduler)
+                            .map(secret -> new ClientBatchRepository.SecretRewrite(client.getClientId(),
+                                    clientSecretCipher.encrypt(client.getClientId(), secret),
+                                    ClientSecretCipher.FORMAT_GCM, clientSecretCipher.primaryKeyId(),
+                                    previousClientSecret))
+                            .onErrorResume(throwable -> {
+                                LOG.warn("can not re-encrypt clientId: {}: {}", client.getClientId(),
+                                        throwable.getMessage());
+                                failedCounter.increment();
+                                return Mono.empty();
+                            });
+                })
+                .collectList()
+                .flatMap(rewrites -> clientBatchRepository.rewriteSecrets(rewrites))
+                .doOnNext(count -> {
+                    rewrittenCounter.increment(count);
+                    pending.addAndGet(-page.size());
+                    LOG.debug("re-encrypted {} of {} client secrets in page", count, page.size());
+                });
+    }
+
+    private Duration pacing(int rows) {
+        return Duration.ofMillis(rows * 1000L / Math.max(1, rowsPerSecond));
+    }
+
+    @Override
+    public void destroy() {
+        Disposable current = disposable;
+        if (current != null) {
+            current.dispose();
+        }
+        scheduler.dispose();
+    }
+}
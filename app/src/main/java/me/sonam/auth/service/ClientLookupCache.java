@@ -0,0 +1,117 @@
+package me.sonam.auth.service;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import me.sonam.auth.repo.entity.Client;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.function.Function;
+
+/**
+ * Read-through cache of decrypted clients for GET /clients/{clientId}, with the ETag precomputed.  A hit,
+ * and an If-None-Match answered with 304, touches neither the database nor the crypto code.  Entries are
+ * invalidated when the client is saved or deleted on any replica, see {@link ClientChangeNotifier}.
+ */
+@Component
+public class ClientLookupCache {
+    private static final Logger LOG = LoggerFactory.getLogger(ClientLookupCache.class);
+
+    private final AsyncCache<String, CachedClient> cache;
+
+    public ClientLookupCache(@Value("${client-lookup-cache.max-size:1000}") long maxSize,
+                             @Value("${client-lookup-cache.ttl:PT5M}") Duration ttl,
+                             MeterRegistry meterRegistry) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .buildAsync();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "client.lookup");
+        LOG.info("client lookup cache with maxSize: {}, ttl: {}", maxSize, ttl);
+    }
+
+    /**
+     * returns the cached client or loads it, concurrent misses share one load and failed loads are not cached
+     */
+    public Mono<CachedClient> get(String clientId, Function<String, Mono<CachedClient>> loader) {
+        return Mono.fromFuture(() -> cache.get(clientId, (key, executor) -> loader.apply(key).toFuture()), true);
+    }
+
+    public void invalidate(String clientId) {
+        LOG.debug("invalidate cached client for clientId: {}", clientId);
+        cache.synchronous().invalidate(clientId);
+    }
+
+    /**
+     * drops the changed client, or every client, when it was saved or deleted on any replica
+     */
+    @EventListener
+    public void onClientChanged(ClientChangedEvent event) {
+        if (event.isAll()) {
+            LOG.debug("invalidate all cached client");
+            cache.synchronous().invalidateAll();
+        }
+        else {
+            invalidate(event.clientId());
+        }
+    }
+
+    public long estimatedSize() {
+        return cache.synchronous().estimatedSize();
+    }
+
+    public CacheStats stats() {
+        return cache.synchronous().stats();
+    }
+
+    /**
+     * strong ETag of the client representation: a digest of the clientId, decrypted clientSecret and rate limits.
+     * Re-encrypting the stored secret under another key or format does not change it, a save that changes what
+     * GET returns does.
+     */
+    public static String etag(String clientId, String clientSecret, Integer rateLimitPerSecond, Integer rateLimitBurst) {
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+            for (Object value : new Object[]{clientId, clientSecret, rateLimitPerSecond, rateLimitBurst}) {
+                messageDigest.update(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+                messageDigest.update((byte) 0);
+            }
+            return "\"" + Base64.getUrlEncoder().withoutPadding().encodeToString(messageDigest.digest()).substring(0, 22) +
+                    "\"";
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * a decrypted client and its ETag
+     */
+    public record CachedClient(String clientId, String clientSecret, Integer rateLimitPerSecond,
+                               Integer rateLimitBurst, String etag) {
+
+        public CachedClient(String clientId, String clientSecret, Integer rateLimitPerSecond, Integer rateLimitBurst) {
+            this(clientId, clientSecret, rateLimitPerSecond, rateLimitBurst,
+                    etag(clientId, clientSecret, rateLimitPerSecond, rateLimitBurst));
+        }
+
+        public Client toClient() {
+            Client client = new Client(clientId, clientSecret);
+            client.setRateLimit(rateLimitPerSecond, rateLimitBurst);
+            return client;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package me.sonam.auth.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.core.env.Environment;
+import org.springframework.security.crypto.encrypt.Encryptors;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Client secret envelope encryption.
+ * <p>
+ * Format 2 (current): an AES-256 key is derived with PBKDF2 once at startup for every master key in the key
+ * ring (client-secret.keys, key id to master password) and kept in memory.  Each secret is encrypted with
+ * AES-GCM under a random 12 byte nonce, with the clientId as additional authenticated data so a ciphertext
+ * copied to another row does not decrypt.  The stored value is base64(nonce || ciphertext || tag) and the
+ * row records the key id it was encrypted with.
+ * <p>
+ * New secrets are always encrypted with the primary key (client-secret.primary-key-id), the other keys are
+ * only kept to decrypt rows until they are re-encrypted.  Without a key ring the {@code password} property
+ * is the only key, with the id "default".
+ * <p>
+ * Format 1 (legacy): {@link Encryptors#text} with a per-row salt, which runs PBKDF2 on every call.  It is
+ * only read, rows are rewritten to format 2 the first time they are decrypted.
+ */
+@Component
+public class ClientSecretCipher {
+    private static final Logger LOG = LoggerFactory.getLogger(ClientSecretCipher.class);
+
+    public static final int FORMAT_LEGACY = 1;
+    public static final int FORMAT_GCM = 2;
+    public static final String DEFAULT_KEY_ID = "default";
+
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int NONCE_LENGTH = 12;
+    private static final int TAG_LENGTH_BITS = 128;
+    private static final int KEY_LENGTH_BITS = 256;
+    private static final int KDF_ITERATIONS = 210_000;
+
+    private final SecureRandom secureRandom = new SecureRandom();
+    private final String password;
+    private final String primaryKeyId;
+    private final Map<String, SecretKey> secretKeys = new HashMap<>();
+
+    @Autowired
+    public ClientSecretCipher(@Value("${password}") String password,
+                              @Value("${client-secret.kdf-salt:oauth2-token-mediator}") String kdfSalt,
+                              @Value("${client-secret.primary-key-id:" + DEFAULT_KEY_ID + "}") String primaryKeyId,
+                              Environment environment) {
+        this(password, kdfSalt, primaryKeyId, Binder.get(environment)
+                .bind("client-secret.keys", Bindable.mapOf(String.class, String.class))
+                .orElse(Map.of()));
+    }
+
+    public ClientSecretCipher(String password, String kdfSalt, String primaryKeyId, Map<String, String> keys) {
+        this.password = password;
+        this.primaryKeyId = primaryKeyId;
+
+        Map<String, String> keyRing = keys.isEmpty() ? Map.of(DEFAULT_KEY_ID, password) : keys;
+        keyRing.forEach((keyId, masterKey) -> secretKeys.put(keyId, deriveKey(masterKey, kdfSalt)));
+
+        if (!secretKeys.containsKey(primaryKeyId)) {
+            throw new IllegalStateException("primary client secret key '" + primaryKeyId + "' is not in the key ring");
+        }
+        LOG.info("derived client secret keys {}, primary key: {}", secretKeys.keySet(), primaryKeyId);
+    }
+
+    public String primaryKeyId() {
+        return primaryKeyId;
+    }
+
+    /**
+     * encrypts with the primary key, see {@link #primaryKeyId()}
+     */
+    public String encrypt(String clientId, String clientSecret) {
+        byte[] nonce = new byte[NONCE_LENGTH];
+        secureRandom.nextBytes(nonce);
+
+        try {
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.ENCRYPT_MODE, secretKeys.get(primaryKeyId), new GCMParameterSpec(TAG_LENGTH_BITS, nonce));
+            cipher.updateAAD(clientId.getBytes(StandardCharsets.UTF_8));
+
+            byte[] plaintext = clientSecret.getBytes(StandardCharsets.UTF_8);
+            byte[] envelope = new byte[NONCE_LENGTH + cipher.getOutputSize(plaintext.length)];
+            System.arraycopy(nonce, 0, envelope, 0, NONCE_LENGTH);
+            cipher.doFinal(plaintext, 0, plaintext.length, envelope, NONCE_LENGTH);
+            return Base64.getEncoder().encodeToString(envelope);
+        }
+        catch (GeneralSecurityException e) {
+            throw new IllegalStateException("failed to encrypt client secret", e);
+        }
+    }
+
+    public String decrypt(String keyId, String clientId, String envelope) {
+        SecretKey secretKey = secretKeys.get(keyId);
+        if (secretKey == null) {
+            throw new IllegalStateException("client secret key '" + keyId + "' is not in the key ring");
+        }
+        byte[] bytes = Base64.getDecoder().decode(envelope);
+
+        try {
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.DECRYPT_MODE, secretKey, new GCMParameterSpec(TAG_LENGTH_BITS, bytes, 0, NONCE_LENGTH));
+            cipher.updateAAD(clientId.getBytes(StandardCharsets.UTF_8));
+            return new String(cipher.doFinal(bytes, NONCE_LENGTH, bytes.length - NONCE_LENGTH), StandardCharsets.UTF_8);
+        }
+        catch (GeneralSecurityException e) {
+            throw new IllegalStateException("failed to decrypt client secret", e);
+        }
+    }
+
+    /**
+     * decrypts a format 1 secret, this pays a full PBKDF2 derivation
+     */
+    public String decryptLegacy(String clientSecret, String salt) {
+        return Encryptors.text(password, salt).decrypt(clientSecret);
+    }
+
+    private static SecretKey deriveKey(String password, String kdfSalt) {
+        try {
+            PBEKeySpec keySpec = new PBEKeySpec(password.toCharArray(), kdfSalt.getBytes(StandardCharsets.UTF_8),
+                    KDF_ITERATIONS, KEY_LENGTH_BITS);
+            byte[] key = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(keySpec).getEncoded();
+            keySpec.clearPassword();
+            return new SecretKeySpec(key, "AES");
+        }
+        catch (GeneralSecurityException e) {
+            throw new IllegalStateException("failed to derive client secret key", e);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package me.sonam.auth.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dedicated, bounded scheduler for the client secret encryption and decryption so the AES and key
+ * derivation work never runs on Reactor Netty event loop threads.
+ * <p>
+ * The pool has a fixed number of threads and a bounded queue.  When the queue is full new work is
+ * rejected with a {@link RejectedExecutionException} instead of piling up, callers see it as an error signal.
+ * Queue depth, active threads and execution/wait times are published as executor.* meters with name=crypto.
+ * <p>
+ * With crypto-executor.virtual-threads, in the -Pjava21 build only, each task runs on a new virtual thread
+ * instead.  The same parallelism + queue-limit bound then applies to the tasks in flight.
+ */
+@Component
+public class CryptoExecutor implements DisposableBean {
+    private static final Logger LOG = LoggerFactory.getLogger(CryptoExecutor.class);
+
+    private final ExecutorService executorService;
+    private final Scheduler scheduler;
+    private final Counter rejectedCounter;
+    private final Semaphore inFlight;
+
+    public CryptoExecutor(@Value("${crypto-executor.parallelism:0}") int parallelism,
+                          @Value("${crypto-executor.queue-limit:1000}") int queueLimit,
+                          @Value("${crypto-executor.virtual-threads:false}") boolean virtualThreads,
+                          MeterRegistry meterRegistry) {
+        final int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+
+        if (virtualThreads) {
+            this.executorService = ExecutorServiceMetrics.monitor(meterRegistry,
+                    VirtualThreads.newThreadPerTaskExecutor("crypto-"), "crypto");
+            this.inFlight = new Semaphore(threads + queueLimit);
+            LOG.info("crypto executor on virtual threads with at most {} tasks in flight", threads + queueLimit);
+        }
+        else {
+            ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueLimit), new CustomizableThreadFactory("crypto-"),
+                    new ThreadPoolExecutor.AbortPolicy());
+            this.executorService = ExecutorServiceMetrics.monitor(meterRegistry, threadPoolExecutor, "crypto");
+            this.inFlight = null;
+            LOG.info("crypto executor with {} threads and queue limit {}", threads, queueLimit);
+        }
+        this.scheduler = Schedulers.fromExecutorService(executorService, "crypto");
+        this.rejectedCounter = Counter.builder("crypto.executor.rejected")
+                .description("crypto tasks rejected because the queue was full")
+                .register(meterRegistry);
+    }
+
+    /**
+     * subscribes to the given crypto work on the crypto scheduler, the work must be lazy, e.g. built with
+     * Mono.fromCallable, for this to move it off the calling thread.
+     */
+    public <T> Mono<T> offload(Mono<T> work) {
+        Mono<T> offloaded = inFlight == null ? work.subscribeOn(scheduler) : Mono.defer(() -> {
+            if (!inFlight.tryAcquire()) {
+                return Mono.error(new RejectedExecutionException("too many crypto tasks in flight"));
+            }
+            return work.subscribeOn(scheduler).doFinally(signalType -> inFlight.release());
+        });
+        return offloaded.doOnError(RejectedExecutionException.class, e -> rejectedCounter.increment());
+    }
+
+    /**
+     * whether crypto work runs on virtual threads
+     */
+    public boolean isVirtual() {
+        return inFlight != null;
+    }
+
+    public Scheduler scheduler() {
+        return scheduler;
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.dispose();
+        executorService.shutdown();
+    }
+}
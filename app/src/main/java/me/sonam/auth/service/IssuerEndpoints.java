@@ -0,0 +1,86 @@
+package me.sonam.auth.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.util.UriUtils;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Precompiled issuer authorize and token endpoints.  The constant parts of the urls are built once at
+ * startup and only the request specific values are percent-encoded per request, there is no uri template
+ * parsing on the hot path.
+ * <p>
+ * Token grants are sent as an application/x-www-form-urlencoded POST body so codes and refresh tokens stay
+ * out of the issuer access logs and the client uri metrics.
+ */
+@Component
+public class IssuerEndpoints {
+
+    private final String authorizePrefix;
+    private final URI tokenUri;
+
+    public IssuerEndpoints(@Value("${authorization.root}${authorization.authorize}") String authorizationEndpoint,
+                           @Value("${authorization.root}${authorization.token}") String tokenEndpoint) {
+        this.authorizePrefix = authorizationEndpoint + "?response_type=code&client_id=";
+        this.tokenUri = URI.create(tokenEndpoint);
+    }
+
+    public URI authorizeUri(String clientId, String redirectUri, String state, String scope) {
+        StringBuilder stringBuilder = new StringBuilder(authorizePrefix.length() + 256)
+                .append(authorizePrefix).append(queryParam(clientId));
+
+        appendQueryParam(stringBuilder, "&redirect_uri=", redirectUri);
+        appendQueryParam(stringBuilder, "&state=", state);
+        appendQueryParam(stringBuilder, "&scope=", scope);
+        return URI.create(stringBuilder.toString());
+    }
+
+    public URI tokenUri() {
+        return tokenUri;
+    }
+
+    public String authorizationCodeForm(String grantType, String redirectUri, String code, String scope) {
+        StringBuilder stringBuilder = new StringBuilder(256).append("grant_type=").append(formValue(grantType));
+
+        appendFormValue(stringBuilder, "&redirect_uri=", redirectUri);
+        appendFormValue(stringBuilder, "&code=", code);
+        appendFormValue(stringBuilder, "&scope=", scope);
+        return stringBuilder.toString();
+    }
+
+    public String refreshTokenForm(String grantType, String refreshToken) {
+        StringBuilder stringBuilder = new StringBuilder(256).append("grant_type=").append(formValue(grantType));
+
+        appendFormValue(stringBuilder, "&refresh_token=", refreshToken);
+        return stringBuilder.toString();
+    }
+
+    private static void appendQueryParam(StringBuilder stringBuilder, String name, String value) {
+        if (value != null && !value.isEmpty()) {
+            stringBuilder.append(name).append(queryParam(value));
+        }
+    }
+
+    private static void appendFormValue(StringBuilder stringBuilder, String name, String value) {
+        if (value != null && !value.isEmpty()) {
+            stringBuilder.append(name).append(formValue(value));
+        }
+    }
+
+    /**
+     * encodes what is illegal in a query parameter value, '&amp;', '=' and spaces included, and hands back the
+     * same String when nothing needs encoding
+     */
+    private static String queryParam(String value) {
+        return value == null ? "" : UriUtils.encodeQueryParam(value, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * form values encode everything outside the unreserved set
+     */
+    private static String formValue(String value) {
+        return value == null ? "" : UriUtils.encode(value, StandardCharsets.UTF_8);
+    }
+}
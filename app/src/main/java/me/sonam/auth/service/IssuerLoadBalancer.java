@@ -0,0 +1,281 @@
+package me.sonam.auth.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.ReactiveDiscoveryClient;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import reactor.core.scheduler.Schedulers;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Spreads issuer token calls across the authorization-server instances found with the
+ * {@link ReactiveDiscoveryClient}, instead of sending every call through the one authorization.root gateway.
+ * <p>
+ * The instance list is refreshed in the background, a token call never waits on discovery.  The discovery
+ * client is only looked up, and so created, off the startup path once the application is ready.  Each call picks
+ * the better of two random healthy instances by EWMA latency times outstanding calls, so a slow or busy
+ * instance gets less traffic.  A failed call enters the EWMA as if it took the whole attempt timeout, so an
+ * instance failing fast does not look like the quickest one.  An instance with consecutive-failures 5xx,
+ * connect failures or timeouts in a row is ejected for the ejection duration.  With discovery disabled, no
+ * instances found or every instance ejected the call falls back to authorization.root.
+ * <p>
+ * Only the token endpoint is balanced: the authorize redirect is sent to the browser, which must keep using
+ * the public authorization.root address.
+ */
+@Component
+public class IssuerLoadBalancer implements DisposableBean {
+    private static final Logger LOG = LoggerFactory.getLogger(IssuerLoadBalancer.class);
+
+    private final boolean enabled;
+    private final String serviceId;
+    private final String tokenPath;
+    private final Duration refreshInterval;
+    private final int consecutiveFailures;
+    private final long ejectionNanos;
+    private final double ewmaWeight;
+    private final long failureLatencyNanos;
+    private final IssuerEndpoints issuerEndpoints;
+    private final ObjectProvider<ReactiveDiscoveryClient> discoveryClient;
+    private final Counter ejectionCounter;
+
+    private volatile List<IssuerInstance> instances = List.of();
+    private Disposable refresh;
+
+    public IssuerLoadBalancer(@Value("${issuer.discovery.enabled:false}") boolean enabled,
+                              @Value("${issuer.discovery.service-id:authorization-server}") String serviceId,
+                              @Value("${issuer.discovery.path:}") String path,
+                              @Value("${issuer.discovery.refresh-interval:PT10S}") Duration refreshInterval,
+                              @Value("${issuer.discovery.ejection.consecutive-failures:3}") int consecutiveFailures,
+                              @Value("${issuer.discovery.ejection.duration:PT30S}") Duration ejectionDuration,
+                              @Value("${issuer.discovery.ewma-weight:0.3}") double ewmaWeight,
+                              @Value("${issuer.resilience.attempt-timeout:PT5S}") Duration attemptTimeout,
+                              @Value("${authorization.root}") String authorizationRoot,
+                              @Value("${authorization.token}") String token,
+                              IssuerEndpoints issuerEndpoints,
+                              ObjectProvider<ReactiveDiscoveryClient> discoveryClient,
+                              MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.serviceId = serviceId;
+        // instances serve the issuer under the same path as the gateway unless told otherwise
+        this.tokenPath = (path.isEmpty() ? URI.create(authorizationRoot).getPath() : path) + token;
+        this.refreshInterval = refreshInterval;
+        this.consecutiveFailures = consecutiveFailures;
+        this.ejectionNanos = ejectionDuration.toNanos();
+        this.ewmaWeight = ewmaWeight;
+        this.failureLatencyNanos = attemptTimeout.toNanos();
+        this.issuerEndpoints = issuerEndpoints;
+        this.discoveryClient = discoveryClient;
+
+        this.ejectionCounter = Counter.builder("issuer.instance.ejections")
+                .description("issuer instances ejected after consecutive failures")
+                .register(meterRegistry);
+        Gauge.builder("issuer.instances", this, balancer -> balancer.count(false))
+                .tag("state", "available").register(meterRegistry);
+        Gauge.builder("issuer.instances", this, balancer -> balancer.count(true))
+                .tag("state", "ejected").register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            LOG.info("issuer discovery disabled, token calls go to {}", issuerEndpoints.tokenUri());
+            return;
+        }
+
+        refresh = Mono.fromSupplier(discoveryClient::getIfAvailable)
+                .subscribeOn(Schedulers.boundedElastic())
+                .switchIfEmpty(Mono.fromRunnable(() -> LOG.warn("issuer discovery enabled but there is no discovery " +
+                        "client, token calls go to {}", issuerEndpoints.tokenUri())))
+                .flatMapMany(reactiveDiscoveryClient -> {
+                    LOG.info("discovering issuer service {} every {}", serviceId, refreshInterval);
+                    return Flux.interval(Duration.ZERO, refreshInterval)
+                            .concatMap(tick -> reactiveDiscoveryClient.getInstances(serviceId).collectList()
+                                    .onErrorResume(throwable -> {
+                                        LOG.warn("issuer discovery failed, keeping {} instances: {}", instances.size(),
+                                                throwable.getMessage());
+                                        return Mono.empty();
+                                    }));
+                })
+                .subscribe(this::update);
+    }
+
+    /**
+     * runs the call against the selected instance token uri and records its latency and outcome, the
+     * instance is picked on each subscription so a retry can land on another instance
+     */
+    public <T> Mono<T> exchange(Function<URI, Mono<T>> call) {
+        return Mono.defer(() -> {
+            IssuerInstance instance = select();
+            if (instance == null) {
+                return call.apply(issuerEndpoints.tokenUri());
+            }
+
+            instance.outstanding.incrementAndGet();
+            final long start = System.nanoTime();
+            return call.apply(instance.tokenUri)
+                    .doOnError(throwable -> instance.completed(System.nanoTime() - start, !isIssuerFailure(throwable)))
+                    .doFinally(signalType -> {
+                        instance.outstanding.decrementAndGet();
+                        if (signalType == SignalType.ON_COMPLETE) {
+                            instance.completed(System.nanoTime() - start, true);
+                        }
+                        else if (signalType == SignalType.CANCEL) {
+                            // the attempt timeout cancels, count it against the instance
+                            instance.completed(System.nanoTime() - start, false);
+                        }
+                    });
+        });
+    }
+
+    /**
+     * power of two choices between healthy instances, null when there is none
+     */
+    IssuerInstance select() {
+        List<IssuerInstance> current = instances;
+        if (current.isEmpty()) {
+            return null;
+        }
+
+        final long now = System.nanoTime();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        IssuerInstance first = current.get(random.nextInt(current.size()));
+        IssuerInstance second = current.get(random.nextInt(current.size()));
+
+        boolean firstHealthy = !first.isEjected(now);
+        boolean secondHealthy = !second.isEjected(now);
+
+        if (firstHealthy && secondHealthy) {
+            return first.score() <= second.score() ? first : second;
+        }
+        if (firstHealthy || secondHealthy) {
+            return firstHealthy ? first : second;
+        }
+        return firstHealthy(current, now);
+    }
+
+    private static IssuerInstance firstHealthy(List<IssuerInstance> current, long now) {
+        for (IssuerInstance instance : current) {
+            if (!instance.isEjected(now)) {
+                return instance;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * replaces the instance list, instances that are still there keep their latency and failure state
+     */
+    private void update(List<ServiceInstance> serviceInstances) {
+        Map<URI, IssuerInstance> previous = new HashMap<>();
+        instances.forEach(instance -> previous.put(instance.tokenUri, instance));
+
+        List<IssuerInstance> updated = serviceInstances.stream()
+                .map(serviceInstance -> URI.create(serviceInstance.getUri() + tokenPath))
+                .distinct()
+                .map(tokenUri -> previous.getOrDefault(tokenUri, new IssuerInstance(tokenUri)))
+                .toList();
+
+        if (updated.size() != instances.size()) {
+            LOG.info("issuer instances: {}", updated.stream().map(instance -> instance.tokenUri).toList());
+        }
+        instances = updated;
+    }
+
+    /**
+     * the number of discovered instances not ejected, -1 when token calls go to authorization.root
+     */
+    public int availableInstances() {
+        return instances.isEmpty() ? -1 : (int) count(false);
+    }
+
+    private double count(boolean ejected) {
+        final long now = System.nanoTime();
+        return instances.stream().filter(instance -> instance.isEjected(now) == ejected).count();
+    }
+
+    /**
+     * 4xx answers mean the issuer is up and said no, only other failures count against an instance
+     */
+    private static boolean isIssuerFailure(Throwable throwable) {
+        return !(throwable instanceof WebClientResponseException responseException &&
+                responseException.getStatusCode().is4xxClientError());
+    }
+
+    @Override
+    public void destroy() {
+        if (refresh != null) {
+            refresh.dispose();
+        }
+    }
+
+    /**
+     * one discovered issuer instance with its load and health
+     */
+    class IssuerInstance {
+        private final URI tokenUri;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicInteger failures = new AtomicInteger();
+        private volatile double ewmaNanos;
+        private volatile long ejectedUntil;
+        private volatile boolean ejected;
+
+        IssuerInstance(URI tokenUri) {
+            this.tokenUri = tokenUri;
+        }
+
+        URI tokenUri() {
+            return tokenUri;
+        }
+
+        double score() {
+            return (ewmaNanos + 1) * (outstanding.get() + 1);
+        }
+
+        boolean isEjected(long now) {
+            return ejected && now - ejectedUntil < 0;
+        }
+
+        void completed(long latencyNanos, boolean success) {
+            if (!success) {
+                latencyNanos = Math.max(latencyNanos, failureLatencyNanos);
+            }
+            // racy updates only lose a sample now and then, good enough for picking an instance
+            ewmaNanos = ewmaNanos == 0 ? latencyNanos : ewmaWeight * latencyNanos + (1 - ewmaWeight) * ewmaNanos;
+
+            if (success) {
+                failures.set(0);
+                ejected = false;
+            }
+            else if (failures.incrementAndGet() >= consecutiveFailures && !isEjected(System.nanoTime())) {
+                ejectedUntil = System.nanoTime() + ejectionNanos;
+                ejected = true;
+                failures.set(0);
+                ejectionCounter.increment();
+                LOG.warn("ejected issuer instance {} for {} ms after {} consecutive failures", tokenUri,
+                        Duration.ofNanos(ejectionNanos).toMillis(), consecutiveFailures);
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package me.sonam.auth.service;
+
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.core.IntervalFunction;
+import io.github.resilience4j.micrometer.tagged.TaggedBulkheadMetrics;
+import io.github.resilience4j.micrometer.tagged.TaggedCircuitBreakerMetrics;
+import io.github.resilience4j.micrometer.tagged.TaggedRetryMetrics;
+import io.github.resilience4j.micrometer.tagged.TaggedTimeLimiterMetrics;
+import io.github.resilience4j.reactor.bulkhead.operator.BulkheadOperator;
+import io.github.resilience4j.reactor.circuitbreaker.operator.CircuitBreakerOperator;
+import io.github.resilience4j.reactor.retry.RetryOperator;
+import io.github.resilience4j.reactor.timelimiter.TimeLimiterOperator;
+import io.github.resilience4j.retry.Retry;
+import io.github.resilience4j.retry.RetryConfig;
+import io.github.resilience4j.retry.RetryRegistry;
+import io.github.resilience4j.timelimiter.TimeLimiter;
+import io.github.resilience4j.timelimiter.TimeLimiterConfig;
+import io.github.resilience4j.timelimiter.TimeLimiterRegistry;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Resilience pipeline around each issuer token call, from the outside in:
+ * <ul>
+ *     <li>bulkhead: at most max-concurrent-calls issuer calls, with no waiting, so extra calls are rejected
+ *     at once instead of piling up connections and memory</li>
+ *     <li>retry: jittered exponential backoff, only for failures where the request never reached the issuer
+ *     (connect errors), an authorization code or refresh token must not be sent twice</li>
+ *     <li>circuit breaker: opens on the issuer 5xx, timeout and connect failure rate, 4xx answers are the
+ *     caller's problem and do not count</li>
+ *     <li>time limiter: per attempt timeout</li>
+ * </ul>
+ * Rejections and timeouts surface as {@link IssuerUnavailableException}.  All four publish resilience4j.*
+ * meters tagged with name=issuer.
+ */
+@Component
+public class IssuerResilience {
+    private static final Logger LOG = LoggerFactory.getLogger(IssuerResilience.class);
+
+    private static final String NAME = "issuer";
+
+    private final Bulkhead bulkhead;
+    private final Retry retry;
+    private final CircuitBreaker circuitBreaker;
+    private final TimeLimiter timeLimiter;
+
+    public IssuerResilience(@Value("${issuer.resilience.attempt-timeout:PT5S}") Duration attemptTimeout,
+                            @Value("${issuer.resilience.retry.max-attempts:3}") int maxAttempts,
+                            @Value("${issuer.resilience.retry.initial-backoff:PT0.05S}") Duration initialBackoff,
+                            @Value("${issuer.resilience.circuit-breaker.failure-rate-threshold:50}") float failureRateThreshold,
+                            @Value("${issuer.resilience.circuit-breaker.sliding-window-size:100}") int slidingWindowSize,
+                            @Value("${issuer.resilience.circuit-breaker.minimum-number-of-calls:20}") int minimumNumberOfCalls,
+                            @Value("${issuer.resilience.circuit-breaker.wait-duration-in-open-state:PT10S}") Duration waitInOpenState,
+                            @Value("${issuer.resilience.bulkhead.max-concurrent-calls:200}") int maxConcurrentCalls,
+                            MeterRegistry meterRegistry) {
+        TimeLimiterRegistry timeLimiterRegistry = TimeLimiterRegistry.of(TimeLimiterConfig.custom()
+                .timeoutDuration(attemptTimeout)
+                .build());
+        CircuitBreakerRegistry circuitBreakerRegistry = CircuitBreakerRegistry.of(CircuitBreakerConfig.custom()
+                .failureRateThreshold(failureRateThreshold)
+                .slidingWindowSize(slidingWindowSize)
+                .minimumNumberOfCalls(minimumNumberOfCalls)
+                .waitDurationInOpenState(waitInOpenState)
+                .recordException(IssuerResilience::isIssuerFailure)
+                .build());
+        RetryRegistry retryRegistry = RetryRegistry.of(RetryConfig.custom()
+                .maxAttempts(maxAttempts)
+                .intervalFunction(IntervalFunction.ofExponentialRandomBackoff(initialBackoff, 2, 0.5))
+                .retryOnException(IssuerResilience::isNotSent)
+                .build());
+        BulkheadRegistry bulkheadRegistry = BulkheadRegistry.of(BulkheadConfig.custom()
+                .maxConcurrentCalls(maxConcurrentCalls)
+                .maxWaitDuration(Duration.ZERO)
+                .build());
+
+        this.timeLimiter = timeLimiterRegistry.timeLimiter(NAME);
+        this.circuitBreaker = circuitBreakerRegistry.circuitBreaker(NAME);
+        this.retry = retryRegistry.retry(NAME);
+        this.bulkhead = bulkheadRegistry.bulkhead(NAME);
+
+        TaggedTimeLimiterMetrics.ofTimeLimiterRegistry(timeLimiterRegistry).bindTo(meterRegistry);
+        TaggedCircuitBreakerMetrics.ofCircuitBreakerRegistry(circuitBreakerRegistry).bindTo(meterRegistry);
+        TaggedRetryMetrics.ofRetryRegistry(retryRegistry).bindTo(meterRegistry);
+        TaggedBulkheadMetrics.ofBulkheadRegistry(bulkheadRegistry).bindTo(meterRegistry);
+
+        circuitBreaker.getEventPublisher().onStateTransition(event ->
+                LOG.warn("issuer circuit breaker {}", event.getStateTransition()));
+        LOG.info("issuer resilience attemptTimeout: {}, maxAttempts: {}, maxConcurrentCalls: {}",
+                attemptTimeout, maxAttempts, maxConcurrentCalls);
+    }
+
+    /**
+     * runs the issuer call through the pipeline, the call must be cold so a retry sends it again
+     */
+    public <T> Mono<T> decorate(Mono<T> issuerCall) {
+        return issuerCall
+                .transformDeferred(TimeLimiterOperator.of(timeLimiter))
+                .transformDeferred(CircuitBreakerOperator.of(circuitBreaker))
+                .transformDeferred(RetryOperator.of(retry))
+                .transformDeferred(BulkheadOperator.of(bulkhead))
+                .onErrorMap(IssuerResilience::isUnavailable,
+                        throwable -> new IssuerUnavailableException("issuer unavailable: " + throwable.getMessage(), throwable));
+    }
+
+    public CircuitBreaker circuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public Bulkhead bulkhead() {
+        return bulkhead;
+    }
+
+    private static boolean isUnavailable(Throwable throwable) {
+        return throwable instanceof BulkheadFullException || throwable instanceof CallNotPermittedException ||
+                throwable instanceof TimeoutException;
+    }
+
+    private static boolean isIssuerFailure(Throwable throwable) {
+        return !(throwable instanceof WebClientResponseException responseException &&
+                responseException.getStatusCode().is4xxClientError());
+    }
+
+    /**
+     * true when the request could not have reached the issuer, e.g. the connection was refused
+     */
+    static boolean isNotSent(Throwable throwable) {
+        if (!(throwable instanceof WebClientRequestException)) {
+            return false;
+        }
+        for (Throwable cause = throwable.getCause(); cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConnectException || cause instanceof UnknownHostException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,11 @@
+package me.sonam.auth.service;
+
+/**
+ * The issuer call was not made or gave up: the bulkhead is full, the circuit breaker is open or the attempt
+ * timed out.  Callers answer with a 503 right away instead of queueing more work.
+ */
+public class IssuerUnavailableException extends RuntimeException {
+    public IssuerUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
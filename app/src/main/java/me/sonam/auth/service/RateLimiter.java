@@ -0,0 +1,195 @@
+package me.sonam.auth.service;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import me.sonam.auth.repo.ClientRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory token bucket rate limits per clientId and per remote address for the token and authorize
+ * endpoints, so one client or one source can not flood the issuer through the mediator.
+ * <p>
+ * Each bucket is a single theoretical arrival time updated with compare-and-set (the generic cell rate
+ * algorithm), there are no locks and no refill threads.  Buckets live in a size bounded cache and expire
+ * after idle-expiry without requests.  A client's limit comes from its rate_limit_per_second and
+ * rate_limit_burst columns, or the rate-limit.client defaults, and is cached until the client changes.
+ */
+@Component
+public class RateLimiter {
+    private static final Logger LOG = LoggerFactory.getLogger(RateLimiter.class);
+
+    static final String CLIENT = "client";
+    static final String IP = "ip";
+
+    private final boolean enabled;
+    private final Limit defaultClientLimit;
+    private final Limit ipLimit;
+    private final ClientRepository clientRepository;
+    private final UnknownClientCache unknownClientCache;
+    private final Cache<String, Bucket> buckets;
+    private final AsyncCache<String, Limit> clientLimits;
+    private final Counter clientRejectedCounter;
+    private final Counter ipRejectedCounter;
+
+    public RateLimiter(@Value("${rate-limit.enabled:true}") boolean enabled,
+                       @Value("${rate-limit.client.per-second:50}") int clientPerSecond,
+                       @Value("${rate-limit.client.burst:100}") int clientBurst,
+                       @Value("${rate-limit.ip.per-second:20}") int ipPerSecond,
+                       @Value("${rate-limit.ip.burst:40}") int ipBurst,
+                       @Value("${rate-limit.max-buckets:100000}") long maxBuckets,
+                       @Value("${rate-limit.idle-expiry:PT10M}") Duration idleExpiry,
+                       ClientRepository clientRepository, UnknownClientCache unknownClientCache,
+                       MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.defaultClientLimit = new Limit(clientPerSecond, clientBurst);
+        this.ipLimit = new Limit(ipPerSecond, ipBurst);
+        this.clientRepository = clientRepository;
+        this.unknownClientCache = unknownClientCache;
+        this.buckets = Caffeine.newBuilder()
+                .maximumSize(maxBuckets)
+                .expireAfterAccess(idleExpiry)
+                .build();
+        this.clientLimits = Caffeine.newBuilder()
+                .maximumSize(maxBuckets)
+                .expireAfterWrite(idleExpiry)
+                .buildAsync();
+        this.clientRejectedCounter = rejectedCounter(CLIENT, meterRegistry);
+        this.ipRejectedCounter = rejectedCounter(IP, meterRegistry);
+        Gauge.builder("rate_limit.buckets", buckets, Cache::estimatedSize)
+                .description("rate limit buckets held in memory")
+                .register(meterRegistry);
+        LOG.info("rate limits enabled: {}, client default: {}, ip: {}, max buckets: {}",
+                enabled, defaultClientLimit, ipLimit, maxBuckets);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * takes a token from the bucket of the remote address
+     * @return 0 when the request may go on, otherwise the nanoseconds until it may be retried
+     */
+    public long tryAcquireIp(String remoteAddress) {
+        long waitNanos = bucket(IP + ":" + remoteAddress, ipLimit).tryAcquire(System.nanoTime());
+        if (waitNanos > 0) {
+            ipRejectedCounter.increment();
+        }
+        return waitNanos;
+    }
+
+    /**
+     * takes a token from the bucket of the clientId with the client's own limit
+     * @return 0 when the request may go on, otherwise the nanoseconds until it may be retried
+     */
+    public Mono<Long> tryAcquireClient(String clientId) {
+        return Mono.fromFuture(() -> clientLimits.get(clientId, (key, executor) -> loadLimit(key).toFuture()), true)
+                .map(limit -> {
+                    long waitNanos = bucket(CLIENT + ":" + clientId, limit).tryAcquire(System.nanoTime());
+                    if (waitNanos > 0) {
+                        clientRejectedCounter.increment();
+                    }
+                    return waitNanos;
+                });
+    }
+
+    /**
+     * a changed client may have a new limit, its bucket starts over with it
+     */
+    @EventListener
+    public void onClientChanged(ClientChangedEvent event) {
+        if (event.isAll()) {
+            clientLimits.synchronous().invalidateAll();
+            buckets.asMap().keySet().removeIf(key -> key.startsWith(CLIENT + ":"));
+        }
+        else {
+            clientLimits.synchronous().invalidate(event.clientId());
+            buckets.invalidate(CLIENT + ":" + event.clientId());
+        }
+    }
+
+    private Mono<Limit> loadLimit(String clientId) {
+        if (unknownClientCache.isUnknown(clientId)) {
+            return Mono.just(defaultClientLimit);
+        }
+        return clientRepository.findById(clientId)
+                .map(client -> new Limit(
+                        client.getRateLimitPerSecond() != null ? client.getRateLimitPerSecond() : defaultClientLimit.perSecond(),
+                        client.getRateLimitBurst() != null ? client.getRateLimitBurst() : defaultClientLimit.burst()))
+                .switchIfEmpty(Mono.fromSupplier(() -> {
+                    unknownClientCache.recordUnknown(clientId);
+                    return defaultClientLimit;
+                }))
+                .onErrorResume(throwable -> {
+                    LOG.warn("failed to load rate limit of clientId: {}, using the default: {}", clientId,
+                            throwable.getMessage());
+                    return Mono.just(defaultClientLimit);
+                });
+    }
+
+    private Bucket bucket(String key, Limit limit) {
+        Bucket bucket = buckets.get(key, unused -> new Bucket(limit));
+        if (!bucket.limit.equals(limit)) {
+            bucket = new Bucket(limit);
+            buckets.put(key, bucket);
+        }
+        return bucket;
+    }
+
+    private static Counter rejectedCounter(String key, MeterRegistry meterRegistry) {
+        return Counter.builder("rate_limit.rejected")
+                .description("token and authorize requests rejected by a rate limit")
+                .tag("key", key)
+                .register(meterRegistry);
+    }
+
+    /**
+     * perSecond requests a second on average with up to burst at once
+     */
+    record Limit(int perSecond, int burst) {
+    }
+
+    /**
+     * token bucket kept as the time the bucket is full again: each request moves it one emission interval
+     * further and is rejected when that is more than burst intervals ahead of now
+     */
+    static final class Bucket {
+        private final Limit limit;
+        private final long intervalNanos;
+        private final long burstNanos;
+        private final AtomicLong theoreticalArrival = new AtomicLong(Long.MIN_VALUE);
+
+        Bucket(Limit limit) {
+            this.limit = limit;
+            this.intervalNanos = 1_000_000_000L / Math.max(1, limit.perSecond());
+            this.burstNanos = intervalNanos * Math.max(1, limit.burst());
+        }
+
+        long tryAcquire(long now) {
+            while (true) {
+                final long current = theoreticalArrival.get();
+                final long updated = (current == Long.MIN_VALUE || current - now < 0 ? now : current) + intervalNanos;
+                final long waitNanos = updated - now - burstNanos;
+
+                if (waitNanos > 0) {
+                    return waitNanos;
+                }
+                if (theoreticalArrival.compareAndSet(current, updated)) {
+                    return 0;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package me.sonam.auth.service;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.pool.PoolMetrics;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.Wrapped;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Checks the dependencies a replica needs to serve token requests in the background and keeps the result in
+ * one immutable {@link ReadinessSnapshot}, so the readiness probe only reads a reference and never does I/O.
+ * <p>
+ * database: a validation query answers within check-timeout and at most max-pending-acquires callers wait
+ * for a pooled connection.  It is DOWN after failure-threshold consecutive failed checks and UP again on the first
+ * good one, and it has to pass its first check, run when the application is ready and before it reports accepting
+ * traffic, for the replica to become ready.
+ * <p>
+ * Only the database decides readiness.  The issuer and the client change listener are shared by all replicas,
+ * when they fail they fail everywhere at once and taking every pod out of the Service would turn the fast 503
+ * answers into connection errors.  They are reported as UP or DEGRADED for information: issuer, whether the
+ * circuit breaker is open and, with discovery, how many instances are not ejected; caches, whether changes made
+ * on other replicas reach the client caches.
+ */
+@Component
+public class ReadinessMonitor implements DisposableBean {
+    private static final Logger LOG = LoggerFactory.getLogger(ReadinessMonitor.class);
+
+    static final String DATABASE = "database";
+    static final String ISSUER = "issuer";
+    static final String CACHES = "caches";
+    static final String DEGRADED = "DEGRADED";
+
+    private final Duration interval;
+    private final Duration checkTimeout;
+    private final int failureThreshold;
+    private final int maxPendingAcquires;
+    private final DatabaseClient databaseClient;
+    private final IssuerResilience issuerResilience;
+    private final IssuerLoadBalancer issuerLoadBalancer;
+    private final ClientChangeNotifier clientChangeNotifier;
+    private final ClientCredentialCache clientCredentialCache;
+    private final ClientLookupCache clientLookupCache;
+
+    private final AtomicReference<ReadinessSnapshot> snapshot = new AtomicReference<>(ReadinessSnapshot.unknown());
+    private int databaseFailures;
+    private Disposable checks;
+
+    public ReadinessMonitor(@Value("${readiness.interval:PT5S}") Duration interval,
+                            @Value("${readiness.check-timeout:PT2S}") Duration checkTimeout,
+                            @Value("${readiness.failure-threshold:2}") int failureThreshold,
+                            @Value("${readiness.database.max-pending-acquires:10}") int maxPendingAcquires,
+                            DatabaseClient databaseClient, IssuerResilience issuerResilience,
+                            IssuerLoadBalancer issuerLoadBalancer, ClientChangeNotifier clientChangeNotifier,
+                            ClientCredentialCache clientCredentialCache, ClientLookupCache clientLookupCache) {
+        this.interval = interval;
+        this.checkTimeout = checkTimeout;
+        this.failureThreshold = failureThreshold;
+        this.maxPendingAcquires = maxPendingAcquires;
+        this.databaseClient = databaseClient;
+        this.issuerResilience = issuerResilience;
+        this.issuerLoadBalancer = issuerLoadBalancer;
+        this.clientChangeNotifier = clientChangeNotifier;
+        this.clientCredentialCache = clientCredentialCache;
+        this.clientLookupCache = clientLookupCache;
+        // the database is DOWN until its first check passed
+        this.databaseFailures = failureThreshold;
+    }
+
+    /**
+     * the latest snapshot, UNKNOWN until the first check completed
+     */
+    public ReadinessSnapshot snapshot() {
+        return snapshot.get();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        LOG.info("checking readiness every {} with check timeout {} and failure threshold {}",
+                interval, checkTimeout, failureThreshold);
+        check().block(checkTimeout.multipliedBy(2));
+        checks = Flux.interval(interval, interval)
+                .onBackpressureDrop()
+                .concatMap(tick -> check())
+                .subscribe();
+    }
+
+    /**
+     * checks every dependency now and publishes the new snapshot
+     */
+    public Mono<ReadinessSnapshot> check() {
+        return Mono.zip(checkDatabase(), checkIssuer(), checkCaches())
+                .map(checks -> update(Map.of(DATABASE, checks.getT1(), ISSUER, checks.getT2(), CACHES, checks.getT3())));
+    }
+
+    private synchronized ReadinessSnapshot update(Map<String, Check> checks) {
+        Map<String, DependencyHealth> components = new LinkedHashMap<>();
+
+        Check database = checks.get(DATABASE);
+        databaseFailures = database.healthy() ? 0 : databaseFailures + 1;
+        final boolean ready = databaseFailures < failureThreshold;
+        components.put(DATABASE, new DependencyHealth(ready ? DependencyHealth.UP : DependencyHealth.DOWN,
+                database.details()));
+
+        for (String name : new String[]{ISSUER, CACHES}) {
+            Check check = checks.get(name);
+            components.put(name, new DependencyHealth(check.healthy() ? DependencyHealth.UP : DEGRADED, check.details()));
+        }
+
+        ReadinessSnapshot updated = new ReadinessSnapshot(ready ? DependencyHealth.UP : DependencyHealth.DOWN,
+                Instant.now(), Collections.unmodifiableMap(components));
+        ReadinessSnapshot previous = snapshot.getAndSet(updated);
+        if (!updated.status().equals(previous.status())) {
+            LOG.info("readiness changed from {} to {}: {}", previous.status(), updated.status(), updated.components());
+        }
+        return updated;
+    }
+
+    private Mono<Check> checkDatabase() {
+        Map<String, Object> details = new LinkedHashMap<>();
+        Optional<PoolMetrics> poolMetrics = poolMetrics(databaseClient.getConnectionFactory());
+        poolMetrics.ifPresent(metrics -> {
+            details.put("acquired", metrics.acquiredSize());
+            details.put("idle", metrics.idleSize());
+            details.put("pending", metrics.pendingAcquireSize());
+            details.put("maxAllocated", metrics.getMaxAllocatedSize());
+        });
+        final boolean poolHealthy = poolMetrics.map(metrics -> metrics.pendingAcquireSize() <= maxPendingAcquires)
+                .orElse(true);
+
+        return databaseClient.sql("SELECT 1").map(row -> 1).first()
+                .timeout(checkTimeout)
+                .map(one -> new Check(poolHealthy, details))
+                .onErrorResume(throwable -> {
+                    LOG.warn("database readiness check failed: {}", throwable.getMessage());
+                    return Mono.just(new Check(false, details));
+                });
+    }
+
+    private Mono<Check> checkIssuer() {
+        return Mono.fromSupplier(() -> {
+            CircuitBreaker circuitBreaker = issuerResilience.circuitBreaker();
+            CircuitBreaker.State state = circuitBreaker.getState();
+            int availableInstances = issuerLoadBalancer.availableInstances();
+
+            Map<String, Object> details = new LinkedHashMap<>();
+            details.put("circuitBreaker", state.name());
+            details.put("failureRate", circuitBreaker.getMetrics().getFailureRate());
+            details.put("availableConcurrentCalls",
+                    issuerResilience.bulkhead().getMetrics().getAvailableConcurrentCalls());
+            if (availableInstances >= 0) {
+                details.put("availableInstances", availableInstances);
+            }
+            boolean healthy = state != CircuitBreaker.State.OPEN && state != CircuitBreaker.State.FORCED_OPEN &&
+                    availableInstances != 0;
+            return new Check(healthy, details);
+        });
+    }
+
+    private Mono<Check> checkCaches() {
+        return Mono.fromSupplier(() -> {
+            Map<String, Object> details = new LinkedHashMap<>();
+            details.put("changeListener", clientChangeNotifier.isListening() ? "listening" : "disconnected");
+            details.put("credentialEntries", clientCredentialCache.estimatedSize());
+            details.put("credentialHitRate", clientCredentialCache.stats().hitRate());
+            details.put("lookupEntries", clientLookupCache.estimatedSize());
+            details.put("lookupHitRate", clientLookupCache.stats().hitRate());
+            return new Check(clientChangeNotifier.isListening(), details);
+        });
+    }
+
+    private static Optional<PoolMetrics> poolMetrics(ConnectionFactory connectionFactory) {
+        Object current = connectionFactory;
+        while (!(current instanceof ConnectionPool) && current instanceof Wrapped<?> wrapped) {
+            current = wrapped.unwrap();
+        }
+        return current instanceof ConnectionPool connectionPool ? connectionPool.getMetrics() : Optional.empty();
+    }
+
+    @Override
+    public void destroy() {
+        if (checks != null) {
+            checks.dispose();
+        }
+    }
+
+    /**
+     * outcome of one check of one dependency
+     */
+    private record Check(boolean healthy, Map<String, Object> details) {
+    }
+
+    /**
+     * UP, DOWN or DEGRADED with what the last check saw
+     */
+    public record DependencyHealth(String status, Map<String, Object> details) {
+        public static final String UP = "UP";
+        public static final String DOWN = "DOWN";
+    }
+
+    /**
+     * readiness of the replica as of checkedAt, UP when the database is UP
+     */
+    public record ReadinessSnapshot(String status, Instant checkedAt, Map<String, DependencyHealth> components) {
+
+        static ReadinessSnapshot unknown() {
+            return new ReadinessSnapshot("UNKNOWN", null, Map.of());
+        }
+
+        public boolean isReady() {
+            return DependencyHealth.UP.equals(status);
+        }
+    }
+}
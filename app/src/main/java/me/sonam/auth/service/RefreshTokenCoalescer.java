@@ -0,0 +1,99 @@
+package me.sonam.auth.service;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Single-flight coalescing of refresh_token exchanges.  Concurrent requests with the same clientId and
+ * refresh token share one in-flight upstream call, and a successful response is replayed for a short
+ * window so parallel SPA requests do not each rotate the refresh token at the issuer.
+ */
+@Component
+public class RefreshTokenCoalescer {
+    private static final Logger LOG = LoggerFactory.getLogger(RefreshTokenCoalescer.class);
+
+    private final boolean enabled;
+    private final AsyncCache<String, String> inFlight;
+    private final Counter upstreamCounter;
+    private final Counter collapsedCounter;
+
+    public RefreshTokenCoalescer(@Value("${refresh-token-coalescing.enabled:true}") boolean enabled,
+                                 @Value("${refresh-token-coalescing.replay-window:PT2S}") Duration replayWindow,
+                                 @Value("${refresh-token-coalescing.max-size:10000}") long maxSize,
+                                 MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.inFlight = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(replayWindow)
+                .buildAsync();
+        this.upstreamCounter = Counter.builder("token.refresh.coalescing")
+                .description("refresh_token exchanges forwarded to the issuer")
+                .tag("result", "upstream").register(meterRegistry);
+        this.collapsedCounter = Counter.builder("token.refresh.coalescing")
+                .description("refresh_token exchanges answered by an in-flight or replayed upstream call")
+                .tag("result", "collapsed").register(meterRegistry);
+        LOG.info("refresh token coalescing enabled: {}, replayWindow: {}", enabled, replayWindow);
+    }
+
+    /**
+     * returns the shared response for this clientId and refresh token, calling the upstream supplier only
+     * when there is no in-flight or replayable call.  Failed calls are not replayed, and a request without a
+     * refresh token is never coalesced.
+     */
+    public Mono<String> coalesce(String clientId, String refreshToken, Supplier<Mono<String>> upstream) {
+        if (!enabled || refreshToken == null) {
+            return upstream.get();
+        }
+
+        return Mono.defer(() -> {
+            AtomicBoolean loaded = new AtomicBoolean();
+            CompletableFuture<String> response = inFlight.get(key(clientId, refreshToken), (key, executor) -> {
+                loaded.set(true);
+                return upstream.get().toFuture();
+            });
+
+            if (loaded.get()) {
+                upstreamCounter.increment();
+            }
+            else {
+                LOG.debug("collapsed refresh token request for clientId: {}", clientId);
+                collapsedCounter.increment();
+            }
+            return Mono.fromFuture(response, true);
+        });
+    }
+
+    public double collapsedCount() {
+        return collapsedCounter.count();
+    }
+
+    /**
+     * the refresh token is only kept as a hash so the cache never holds the credential itself
+     */
+    private static String key(String clientId, String refreshToken) {
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = messageDigest.digest(refreshToken.getBytes(StandardCharsets.UTF_8));
+            return clientId + ':' + Base64.getUrlEncoder().withoutPadding().encodeToString(hash);
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
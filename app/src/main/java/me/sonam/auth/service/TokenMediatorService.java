@@ -1,145 +1,230 @@
 package me.sonam.auth.service;
 
+import me.sonam.auth.repo.ClientBatchRepository;
 import me.sonam.auth.repo.ClientRepository;
 import me.sonam.auth.repo.entity.Client;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.security.crypto.encrypt.TextEncryptor;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
-import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
 import java.util.Base64;
+import java.util.List;
+import java.util.function.Function;
 @Service
 public class TokenMediatorService {
     private static final Logger LOG = LoggerFactory.getLogger(TokenMediatorService.class);
 
-    @Value("${authorization.root}${authorization.authorize}")
-    private String authorizationEndpoint;
+    @Autowired
+    private ClientRepository clientRepository;
 
-    @Value("${authorization.root}${authorization.token}")
-    private String tokenEndpoint;
+    @Autowired
+    private ClientBatchRepository clientBatchRepository;
 
-    @Value("${password}")
-    private String password;
+    @Autowired
+    private IssuerEndpoints issuerEndpoints;
 
     @Autowired
-    private ClientRepository clientRepository;
+    private ClientCredentialCache clientCredentialCache;
 
-    private TextEncryptor textEncryptor;
-    private WebClient.Builder webClientBuilder;
+    @Autowired
+    private ClientLookupCache clientLookupCache;
 
-    public TokenMediatorService(WebClient.Builder webClientBuilder) {
-        this.webClientBuilder = webClientBuilder;
-    }
+    @Autowired
+    private ClientChangeNotifier clientChangeNotifier;
 
-    public Mono<URI> initiateAuthorizationFlow(String clientId, String redirectUri, String state, String scopes) {
-        StringBuilder stringBuilder = new StringBuilder(authorizationEndpoint)
-                .append("?response_type=code&client_id=").append(clientId);
-        stringBuilder.append("&redirect_uri=").append(redirectUri).append("&state=").append(state);
+    @Autowired
+    private UnknownClientCache unknownClientCache;
+
+    @Autowired
+    private RefreshTokenCoalescer refreshTokenCoalescer;
 
+    @Autowired
+    private TokenMetrics tokenMetrics;
 
-        if (scopes != null && !scopes.isEmpty()){
-            stringBuilder.append("&scope=").append(scopes);
-        }
+    @Autowired
+    private CryptoExecutor cryptoExecutor;
+
+    @Autowired
+    private ClientSecretCipher clientSecretCipher;
+
+    @Autowired
+    private IssuerResilience issuerResilience;
+
+    @Autowired
+    private IssuerLoadBalancer issuerLoadBalancer;
+
+    private final WebClient issuerWebClient;
 
-        URI uri = UriComponentsBuilder.fromUriString(stringBuilder.toString()).build().encode().toUri();
-        LOG.info("redirect user to {}", uri);
+    public TokenMediatorService(@Qualifier("issuerWebClient") WebClient issuerWebClient) {
+        this.issuerWebClient = issuerWebClient;
+    }
+
+    public Mono<URI> initiateAuthorizationFlow(String clientId, String redirectUri, String state, String scopes) {
+        URI uri = issuerEndpoints.authorizeUri(clientId, redirectUri, state, scopes);
+        LOG.debug("redirect user to {}", uri);
         return Mono.just(uri);
     }
 
     public Mono<String> getAccessToken(String clientId, String redirectUri, String grantType, String code, String scope) {
-        LOG.info("building request with clientId: {}", clientId);
+        LOG.debug("building request with clientId: {}", clientId);
 
-        StringBuilder stringBuilder = new StringBuilder(tokenEndpoint).append("?grant_type=")
-                .append(grantType)
-                .append("&redirect_uri=").append(redirectUri)
-                .append("&code=").append(code);
+        return getToken(issuerEndpoints.authorizationCodeForm(grantType, redirectUri, code, scope), clientId, grantType);
+    }
 
-        if (scope != null && !scope.isEmpty()){
-            stringBuilder.append("&scope=").append(scope);
-        }
+    /**
+     * same as {@link #getAccessToken} but hands back the issuer response as is, so the caller can relay
+     * the body buffers without materializing the token json into a String.
+     */
+    public Mono<ResponseEntity<Flux<DataBuffer>>> getAccessTokenResponse(String clientId, String redirectUri,
+                                                                        String grantType, String code, String scope) {
+        LOG.debug("building passthrough request with clientId: {}", clientId);
 
-        LOG.info("requesting token to endpoint: {}", stringBuilder);
-        return getToken(stringBuilder.toString(), clientId);
+        return tokenRequest(issuerEndpoints.authorizationCodeForm(grantType, redirectUri, code, scope), clientId, grantType,
+                responseSpec -> responseSpec.toEntityFlux(DataBuffer.class));
     }
 
     public Mono<String> getRefreshToken(String grantType, String refreshToken, String clientId) {
-        LOG.info("refresh token");
+        LOG.debug("refresh token for clientId: {}", clientId);
 
-        StringBuilder stringBuilder = new StringBuilder(tokenEndpoint).append("?grant_type=")
-                .append(grantType)
-                .append("&refresh_token=").append(refreshToken);
+        return refreshTokenCoalescer.coalesce(clientId, refreshToken,
+                () -> getToken(issuerEndpoints.refreshTokenForm(grantType, refreshToken), clientId, grantType));
+    }
 
+    private Mono<String> getToken(String form, String clientId, String grantType) {
+        return tokenRequest(form, clientId, grantType, responseSpec -> responseSpec.bodyToMono(String.class));
+    }
 
-        return getToken(stringBuilder.toString(), clientId);
+    /**
+     * posts the form encoded grant to the token endpoint of an issuer instance with the client Basic credentials,
+     * through the resilience pipeline
+     */
+    private <T> Mono<T> tokenRequest(String form, String clientId, String grantType,
+                                     Function<WebClient.ResponseSpec, Mono<T>> body) {
+        LOG.debug("calling token endpoint for clientId: {}", clientId);
+
+        return clientCredentialCache.get(clientId, key -> loadClientCredentials(key, grantType))
+                .flatMap(clientSecretb64 -> issuerResilience.decorate(tokenMetrics.time(
+                        issuerLoadBalancer.exchange(tokenUri -> body.apply(issuerWebClient.post()
+                                .uri(tokenUri)
+                                .headers(httpHeaders -> httpHeaders.setBasicAuth(clientSecretb64))
+                                .contentType(MediaType.APPLICATION_FORM_URLENCODED)
+                                .bodyValue(form)
+                                .retrieve())),
+                        TokenMetrics.ISSUER_CALL, clientId, grantType)));
     }
 
-    private Mono<String> getToken(String serviceEndpoint, String clientId) {
-        LOG.info("calling token endpoint with serviceEndpoint: {}, clientId: {}",
-                serviceEndpoint, clientId);
+    /**
+     * looks up the client and builds the Basic-auth header value, this is the cache loader for
+     * {@link ClientCredentialCache}
+     */
+    private Mono<String> loadClientCredentials(String clientId, String grantType) {
+        return tokenMetrics.time(findClient(clientId), TokenMetrics.REPOSITORY_LOOKUP, clientId, grantType)
+                .flatMap(client -> tokenMetrics.time(decryptClientSecret(client),
+                        TokenMetrics.SECRET_DECRYPTION, clientId, grantType))
+                .map(decryptedClientSecret -> basicAuthCredentials(clientId, decryptedClientSecret));
+    }
 
-        return clientRepository.findById(clientId)
-                .switchIfEmpty(Mono.error(new RuntimeException("No client with clientId")))
-                .flatMap(client -> client.decryptClientSecret(password))
-                .flatMap(decryptedClientSecret -> {
-                    StringBuilder clientSecret = new StringBuilder(clientId);
-
-                    clientSecret.append(":").append(decryptedClientSecret);
-                    Base64.Encoder encoder = Base64.getEncoder();
-                    String clientSecretb64 = encoder.encodeToString(clientSecret.toString().getBytes(StandardCharsets.UTF_8));
-                    LOG.info("encoded clientSecretb64: {}", clientSecretb64);
-                    return Mono.just(clientSecretb64);
-                })
-                .flatMap(clientSecretb64 ->webClientBuilder.build().post()
-                .uri(serviceEndpoint)
-                .headers(httpHeaders -> httpHeaders.setBasicAuth(clientSecretb64))
-                .retrieve().bodyToMono(String.class));
+    /**
+     * base64 encoded 'clientId:clientSecret' value for the Basic authorization header
+     */
+    static String basicAuthCredentials(String clientId, String clientSecret) {
+        StringBuilder credentials = new StringBuilder(clientId);
+
+        credentials.append(":").append(clientSecret);
+        Base64.Encoder encoder = Base64.getEncoder();
+        return encoder.encodeToString(credentials.toString().getBytes(StandardCharsets.UTF_8));
     }
 
+    /**
+     * encrypts the secret and writes the client with one upsert statement, there is no read before the
+     * write so saving the same clientId concurrently is safe.
+     * @return the number of clients saved, always 1
+     */
     public Mono<Integer> saveClient(Client userClientCopy) {
         LOG.info("save client id and secret");
 
-        return clientRepository.findById(userClientCopy.getClientId())
-                .switchIfEmpty(Mono.just(new Client(userClientCopy.getClientId(), userClientCopy.getClientSecret())))
-                .map(client1 -> {client1.setClientRepository(clientRepository); return client1;})
-                .map(client1 -> {
-                    if (userClientCopy.getClientSecret().startsWith("{")) {
-                        int indexOf = userClientCopy.getClientSecret().indexOf("}");
-                        final String secretWithoutEncoder = userClientCopy.getClientSecret()
-                                .substring(indexOf+1, userClientCopy.getClientSecret().length());
-
-                        client1.setClientSecret(secretWithoutEncoder);
-                        LOG.info("client secret without encoder: '{}'", secretWithoutEncoder);
-                    }
-                    return client1;
-                })
-                .flatMap(client1 -> {LOG.info("save client"); return client1.save(password);})
-                .flatMap(client1 -> clientRepository.countByClientId(client1.getClientId()));
+        Client client = new Client(userClientCopy.getClientId(), userClientCopy.getClientSecret());
+        client.setRateLimit(userClientCopy.getRateLimitPerSecond(), userClientCopy.getRateLimitBurst());
+        client.removePasswordEncoderPrefix();
+
+        return client.encryptClientSecret(clientSecretCipher)
+                .flatMap(client1 -> clientBatchRepository.upsert(client1))
+                .flatMap(clientId -> clientChangeNotifier.publish(ClientChangedEvent.saved(clientId)))
+                .thenReturn(1);
     }
 
     public Mono<String> deleteClient(String clientId) {
         LOG.info("delete clientId: {}", clientId);
-        return clientRepository.deleteById(clientId).thenReturn(clientId);
+        return clientRepository.deleteById(clientId)
+                .then(clientChangeNotifier.publish(ClientChangedEvent.deleted(clientId)))
+                .thenReturn(clientId);
     }
     public Mono<Client> getClient(String clientId) {
-        LOG.info("get client by clientId");
-        return clientRepository.findById(clientId).switchIfEmpty(
-                Mono.error(new RuntimeException("No client with clientId: "+ clientId)))
-                .flatMap(client ->
-
-
-                    client.decryptClientSecret(password)
-                            .map(decryptedSecret -> {
-                                client.setClientSecret(decryptedSecret);
-                                LOG.info("decrypt client secret before returing to user: decrypted: {}, actual: {}",
-                                        decryptedSecret, client.getClientSecret());
-                                return client;
-                            }));
+        return getCachedClient(clientId).map(ClientLookupCache.CachedClient::toClient);
+    }
+
+    /**
+     * the decrypted client with its ETag, from the {@link ClientLookupCache} when it is there
+     */
+    public Mono<ClientLookupCache.CachedClient> getCachedClient(String clientId) {
+        LOG.debug("get client by clientId: {}", clientId);
+        return clientLookupCache.get(clientId, key -> findClient(key)
+                .flatMap(client -> decryptClientSecret(client)
+                        .map(decryptedSecret -> new ClientLookupCache.CachedClient(key, decryptedSecret,
+                                client.getRateLimitPerSecond(), client.getRateLimitBurst()))));
+    }
+
+    /**
+     * the stored client, or an {@link UnknownClientException} without a database lookup when the clientId is
+     * known not to be registered
+     */
+    private Mono<Client> findClient(String clientId) {
+        if (unknownClientCache.isUnknown(clientId)) {
+            return Mono.error(new UnknownClientException(clientId));
+        }
+        return clientRepository.findById(clientId)
+                .switchIfEmpty(Mono.defer(() -> {
+                    unknownClientCache.recordUnknown(clientId);
+                    return Mono.error(new UnknownClientException(clientId));
+                }));
+    }
+
+    /**
+     * decrypts the stored secret.  Current format secrets decrypt in microseconds on the calling thread, legacy
+     * ones pay a key derivation on the crypto executor.  Secrets not stored in the current format under the
+     * primary key are rewritten on the way out, a failed rewrite is logged and retried on the next read.
+     */
+    Mono<String> decryptClientSecret(Client client) {
+        Mono<String> decryptedSecret = client.isLegacyFormat() ?
+                cryptoExecutor.offload(client.decryptClientSecret(clientSecretCipher)) :
+                client.decryptClientSecret(clientSecretCipher);
+
+        if (client.isEncryptedWithPrimaryKey(clientSecretCipher)) {
+            return decryptedSecret;
+        }
+
+        final String previousClientSecret = client.getClientSecret();
+        return decryptedSecret
+                .flatMap(secret -> clientBatchRepository.rewriteSecrets(List.of(new ClientBatchRepository.SecretRewrite(
+                                client.getClientId(), clientSecretCipher.encrypt(client.getClientId(), secret),
+                                ClientSecretCipher.FORMAT_GCM, clientSecretCipher.primaryKeyId(), previousClientSecret)))
+                        .doOnNext(count -> LOG.info("re-encrypted clientSecret of clientId: {} with key {}, rows: {}",
+                                client.getClientId(), clientSecretCipher.primaryKeyId(), count))
+                        .onErrorResume(throwable -> {
+                            LOG.warn("failed to re-encrypt clientSecret of clientId: {}: {}",
+                                    client.getClientId(), throwable.getMessage());
+                            return Mono.empty();
+                        })
+                        .thenReturn(secret));
     }
 }
@@ -0,0 +1,110 @@
+package me.sonam.auth.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Percentile histogram timers for each phase of a token request: repository lookup, secret decryption,
+ * upstream issuer call and, for relayed issuer responses, response write, tagged by client_id, grant_type and outcome.
+ * <p>
+ * The client_id tag is bounded: a clientId only becomes a tag value after one of its calls succeeded and
+ * while fewer than max-client-ids are tracked, every other clientId is reported as "other" so random
+ * client ids can not blow up the cardinality.  grant_type is reported as authorization_code, refresh_token or
+ * other, whatever the caller sent.  Timers are registered once per tag set and kept.
+ */
+@Component
+public class TokenMetrics {
+    private static final Logger LOG = LoggerFactory.getLogger(TokenMetrics.class);
+
+    public static final String REPOSITORY_LOOKUP = "repository_lookup";
+    public static final String SECRET_DECRYPTION = "secret_decryption";
+    public static final String ISSUER_CALL = "issuer_call";
+    public static final String RESPONSE_WRITE = "response_write";
+
+    private static final String OTHER = "other";
+    private static final Set<String> GRANT_TYPES = Set.of("authorization_code", "refresh_token");
+
+    private final MeterRegistry meterRegistry;
+    private final int maxClientIds;
+    private final Set<String> clientIds = ConcurrentHashMap.newKeySet();
+    private final Map<TimerKey, Timer> timers = new ConcurrentHashMap<>();
+
+    public TokenMetrics(MeterRegistry meterRegistry,
+                        @Value("${token-metrics.max-client-ids:100}") int maxClientIds) {
+        this.meterRegistry = meterRegistry;
+        this.maxClientIds = maxClientIds;
+        LOG.info("token metrics tracking at most {} client_id tag values", maxClientIds);
+    }
+
+    public <T> Mono<T> time(Mono<T> mono, String phase, String clientId, String grantType) {
+        return Mono.defer(() -> {
+            Timer.Sample sample = Timer.start(meterRegistry);
+            return mono.doFinally(signalType -> stop(sample, phase, clientId, grantType, signalType));
+        });
+    }
+
+    public <T> Flux<T> time(Flux<T> flux, String phase, String clientId, String grantType) {
+        return Flux.defer(() -> {
+            Timer.Sample sample = Timer.start(meterRegistry);
+            return flux.doFinally(signalType -> stop(sample, phase, clientId, grantType, signalType));
+        });
+    }
+
+    private void stop(Timer.Sample sample, String phase, String clientId, String grantType, SignalType signalType) {
+        String outcome = outcome(signalType);
+
+        sample.stop(timers.computeIfAbsent(new TimerKey(phase, clientIdTag(clientId, outcome.equals("success")),
+                grantTypeTag(grantType), outcome), this::timer));
+    }
+
+    private Timer timer(TimerKey key) {
+        return Timer.builder("token.mediation.phase")
+                .description("time spent in each phase of a token request")
+                .tags(Tags.of("phase", key.phase(),
+                        "client_id", key.clientId(),
+                        "grant_type", key.grantType(),
+                        "outcome", key.outcome()))
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    private static String grantTypeTag(String grantType) {
+        return grantType != null && GRANT_TYPES.contains(grantType) ? grantType : OTHER;
+    }
+
+    private String clientIdTag(String clientId, boolean success) {
+        if (clientId == null) {
+            return OTHER;
+        }
+        if (clientIds.contains(clientId)) {
+            return clientId;
+        }
+        if (success && clientIds.size() < maxClientIds && clientIds.add(clientId)) {
+            return clientId;
+        }
+        return OTHER;
+    }
+
+    private record TimerKey(String phase, String clientId, String grantType, String outcome) {
+    }
+
+    private static String outcome(SignalType signalType) {
+        return switch (signalType) {
+            case ON_COMPLETE -> "success";
+            case CANCEL -> "cancelled";
+            default -> "error";
+        };
+    }
+}
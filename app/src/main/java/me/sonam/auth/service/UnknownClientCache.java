@@ -0,0 +1,70 @@
+package me.sonam.auth.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Answers "is this clientId certainly not registered" in memory, so repeated requests with made up client ids
+ * are rejected without a database round trip.
+ * <p>
+ * The cache holds clientIds a lookup found missing, and deleted ones, for ttl.  Every clientId not in it is looked
+ * up in the database, so a client written by something that does not announce its change, an older replica or a
+ * direct write to the table, is at worst rejected until its entry expires.  Saves from any replica, through
+ * {@link ClientChangedEvent}, take the id out right away.
+ */
+@Component
+public class UnknownClientCache {
+    private static final Logger LOG = LoggerFactory.getLogger(UnknownClientCache.class);
+
+    private final Cache<String, Boolean> unknownClientIds;
+    private final Counter rejectedCounter;
+
+    public UnknownClientCache(@Value("${unknown-client-cache.max-size:100000}") long maxSize,
+                              @Value("${unknown-client-cache.ttl:PT10M}") Duration ttl,
+                              MeterRegistry meterRegistry) {
+        this.unknownClientIds = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .build();
+        this.rejectedCounter = Counter.builder("client.unknown.rejected")
+                .description("lookups of unregistered clientIds answered without the database")
+                .register(meterRegistry);
+        LOG.info("unknown client cache with maxSize: {}, ttl: {}", maxSize, ttl);
+    }
+
+    /**
+     * true when a lookup of clientId found nothing within ttl, false when the database has to tell
+     */
+    public boolean isUnknown(String clientId) {
+        if (unknownClientIds.getIfPresent(clientId) != null) {
+            rejectedCounter.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * remembers a clientId the database did not have
+     */
+    public void recordUnknown(String clientId) {
+        unknownClientIds.put(clientId, Boolean.TRUE);
+    }
+
+    @EventListener
+    public void onClientChanged(ClientChangedEvent event) {
+        switch (event.type()) {
+            case SAVED -> unknownClientIds.invalidate(event.clientId());
+            case DELETED -> unknownClientIds.put(event.clientId(), Boolean.TRUE);
+            case ALL -> unknownClientIds.invalidateAll();
+        }
+    }
+}
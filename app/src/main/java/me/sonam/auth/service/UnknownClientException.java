@@ -0,0 +1,11 @@
+package me.sonam.auth.service;
+
+/**
+ * there is no client with the requested clientId
+ */
+public class UnknownClientException extends RuntimeException {
+
+    public UnknownClientException(String clientId) {
+        super("No client with clientId: " + clientId);
+    }
+}
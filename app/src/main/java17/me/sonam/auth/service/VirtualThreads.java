@@ -0,0 +1,20 @@
+package me.sonam.auth.service;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Java 17 build: there are no virtual threads.  The -Pjava21 build compiles src/main/java21 instead.
+ */
+final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    static boolean available() {
+        return false;
+    }
+
+    static ExecutorService newThreadPerTaskExecutor(String prefix) {
+        throw new IllegalStateException("virtual threads need the java 21 build, ./gradlew build -Pjava21");
+    }
+}
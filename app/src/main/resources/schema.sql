@@ -1 +1,14 @@
-create table if not exists Client (client_id varchar primary key, client_secret varchar, salt varchar);
\ No newline at end of file
+create table if not exists Client (client_id varchar primary key, client_secret varchar, salt varchar);
+
+-- client_secret envelope format, null or 1 is the legacy per-row salt format, 2 is AES-GCM
+alter table Client add column if not exists format_version int;
+
+-- key ring id of the key a format 2 client_secret is encrypted with, null is the 'default' key
+alter table Client add column if not exists key_id varchar;
+
+-- the getClient ETag is derived from the client itself, the save counter it once used is gone
+alter table Client drop column if exists version;
+
+-- per client token and authorize rate limit, null uses the rate-limit.client defaults
+alter table Client add column if not exists rate_limit_per_second int;
+alter table Client add column if not exists rate_limit_burst int;
@@ -0,0 +1,135 @@
+package me.sonam.auth;
+
+import me.sonam.auth.repo.ClientBatchRepository;
+import me.sonam.auth.repo.entity.Client;
+import me.sonam.auth.service.ClientChangeNotifier;
+import me.sonam.auth.service.ClientSecretCipher;
+import me.sonam.auth.service.TokenMediatorService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The pg_notify / LISTEN channel between replicas on a real Postgres.  Another replica is played by writing
+ * the row and sending the notification straight through the database, so only the LISTENing connection can
+ * evict the cached client.  Skipped where there is no docker.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+@EnableAutoConfiguration
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class ClientChangeNotifierPostgresIntegTest {
+    private static final Logger LOG = LoggerFactory.getLogger(ClientChangeNotifierPostgresIntegTest.class);
+
+    @Container
+    private static final PostgreSQLContainer<?> POSTGRES = new PostgreSQLContainer<>("postgres:15-alpine");
+
+    @MockBean
+    ReactiveJwtDecoder jwtDecoder;
+
+    @Autowired
+    private TokenMediatorService tokenMediatorService;
+
+    @Autowired
+    private ClientChangeNotifier clientChangeNotifier;
+
+    @Autowired
+    private ClientBatchRepository clientBatchRepository;
+
+    @Autowired
+    private ClientSecretCipher clientSecretCipher;
+
+    @Autowired
+    private DatabaseClient databaseClient;
+
+    @DynamicPropertySource
+    static void properties(DynamicPropertyRegistry r) {
+        r.add("spring.r2dbc.url", () -> "r2dbc:postgresql://" + POSTGRES.getHost() + ":" +
+                POSTGRES.getFirstMappedPort() + "/" + POSTGRES.getDatabaseName());
+        r.add("spring.r2dbc.username", POSTGRES::getUsername);
+        r.add("spring.r2dbc.password", POSTGRES::getPassword);
+    }
+
+    @Test
+    public void notificationFromAnotherReplicaEvictsClient() {
+        final String clientId = cachedClient();
+
+        LOG.info("a malformed notification is skipped and does not stop the listener");
+        pgNotify("not-a-change");
+
+        changeOnAnotherReplica(clientId);
+        pgNotify("SAVED:" + clientId);
+        expectClientSecret(clientId, "changed-secret");
+    }
+
+    @Test
+    public void reconnectedListenerEvictsAllClients() {
+        final String clientId = cachedClient();
+        changeOnAnotherReplica(clientId);
+
+        LOG.info("drop the listening connection, notifications sent while it is down would be lost");
+        databaseClient.sql("SELECT pg_terminate_backend(pid) FROM pg_stat_activity WHERE query LIKE 'LISTEN %'")
+                .fetch().rowsUpdated().block();
+
+        LOG.info("the reconnected listener evicts every cached client");
+        expectClientSecret(clientId, "changed-secret");
+        StepVerifier.create(Mono.fromSupplier(clientChangeNotifier::isListening).filter(Boolean::booleanValue)
+                        .repeatWhenEmpty(100, repeat -> repeat.delayElements(Duration.ofMillis(100))))
+                .expectNext(true).verifyComplete();
+    }
+
+    private String cachedClient() {
+        final String clientId = "notified-" + System.nanoTime();
+        StepVerifier.create(tokenMediatorService.saveClient(new Client(clientId, "{noop}secret")))
+                .expectNext(1).verifyComplete();
+        expectClientSecret(clientId, "secret");
+        return clientId;
+    }
+
+    private void changeOnAnotherReplica(String clientId) {
+        new Client(clientId, "changed-secret").encryptClientSecret(clientSecretCipher)
+                .flatMap(client -> clientBatchRepository.upsert(client))
+                .as(StepVerifier::create).expectNext(clientId).verifyComplete();
+
+        LOG.info("without a notification this replica still serves its cached client");
+        StepVerifier.create(tokenMediatorService.getClient(clientId))
+                .assertNext(client -> assertThat(client.getClientSecret()).isEqualTo("secret"))
+                .verifyComplete();
+    }
+
+    private void pgNotify(String payload) {
+        databaseClient.sql("SELECT pg_notify('client_changed', $1)").bind(0, payload)
+                .fetch().rowsUpdated().block();
+    }
+
+    /**
+     * polls the client until it has clientSecret, notifications arrive asynchronously
+     */
+    private void expectClientSecret(String clientId, String clientSecret) {
+        StepVerifier.create(Mono.defer(() -> tokenMediatorService.getClient(clientId))
+                        .map(Client::getClientSecret)
+                        .filter(clientSecret::equals)
+                        .repeatWhenEmpty(100, repeat -> repeat.delayElements(Duration.ofMillis(100))))
+                .expectNext(clientSecret)
+                .verifyComplete();
+    }
+}
@@ -0,0 +1,123 @@
+package me.sonam.auth;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import me.sonam.auth.repo.entity.Client;
+import me.sonam.auth.service.IssuerLoadBalancer;
+import me.sonam.auth.service.TokenMediatorService;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Token calls balanced over two issuer instances found through the simple discovery client, one of them
+ * failing every call.
+ */
+@EnableAutoConfiguration
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "issuer.discovery.enabled=true",
+        "issuer.discovery.service-id=authorization-server",
+        "issuer.discovery.ejection.consecutive-failures=3",
+        "issuer.discovery.ejection.duration=PT60S",
+        "refresh-token-coalescing.enabled=false"})
+public class IssuerDiscoveryIntegTest {
+    private static final Logger LOG = LoggerFactory.getLogger(IssuerDiscoveryIntegTest.class);
+
+    private static final String CLIENT_ID = "discovery-client";
+
+    private static MockWebServer healthyIssuer;
+    private static MockWebServer failingIssuer;
+
+    @MockBean
+    ReactiveJwtDecoder jwtDecoder;
+
+    @Autowired
+    private TokenMediatorService tokenMediatorService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private IssuerLoadBalancer issuerLoadBalancer;
+
+    @BeforeAll
+    static void setupMockWebServers() throws IOException {
+        healthyIssuer = new MockWebServer();
+        healthyIssuer.setDispatcher(dispatcher(new MockResponse().setHeader("Content-Type", "application/json")
+                .setBody("{\"access_token\":\"token\"}")));
+        healthyIssuer.start();
+
+        failingIssuer = new MockWebServer();
+        failingIssuer.setDispatcher(dispatcher(new MockResponse().setResponseCode(500)));
+        failingIssuer.start();
+    }
+
+    @AfterAll
+    public static void shutdownMockWebServers() throws IOException {
+        healthyIssuer.shutdown();
+        failingIssuer.shutdown();
+    }
+
+    @DynamicPropertySource
+    static void properties(DynamicPropertyRegistry r) {
+        r.add("authorization.root", () -> "http://localhost:" + healthyIssuer.getPort());
+        r.add("spring.cloud.discovery.client.simple.instances.authorization-server[0].uri",
+                () -> "http://localhost:" + healthyIssuer.getPort());
+        r.add("spring.cloud.discovery.client.simple.instances.authorization-server[1].uri",
+                () -> "http://localhost:" + failingIssuer.getPort());
+    }
+
+    @Test
+    public void ejectFailingInstance() {
+        tokenMediatorService.saveClient(new Client(CLIENT_ID, "{noop}secret")).block();
+        // discovery starts once the application is ready
+        Flux.interval(Duration.ofMillis(10)).filter(tick -> issuerLoadBalancer.availableInstances() == 2)
+                .blockFirst(Duration.ofSeconds(5));
+
+        long successes = Flux.range(0, 30)
+                .concatMap(i -> tokenMediatorService.getRefreshToken("refresh_token", "refresh-" + i, CLIENT_ID)
+                        .map(token -> 1)
+                        .onErrorResume(throwable -> Mono.just(0)))
+                .filter(result -> result == 1)
+                .count().block();
+
+        LOG.info("healthy issuer calls: {}, failing issuer calls: {}", healthyIssuer.getRequestCount(),
+                failingIssuer.getRequestCount());
+        assertThat(failingIssuer.getRequestCount()).isEqualTo(3);
+        assertThat(healthyIssuer.getRequestCount()).isEqualTo(27);
+        assertThat(successes).isEqualTo(27);
+        assertThat(meterRegistry.get("issuer.instance.ejections").counter().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("issuer.instances").tag("state", "ejected").gauge().value()).isEqualTo(1);
+    }
+
+    private static Dispatcher dispatcher(MockResponse response) {
+        return new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return response;
+            }
+        };
+    }
+}
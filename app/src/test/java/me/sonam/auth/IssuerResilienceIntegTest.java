@@ -0,0 +1,202 @@
+package me.sonam.auth;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import me.sonam.auth.repo.entity.Client;
+import me.sonam.auth.service.IssuerResilience;
+import me.sonam.auth.service.IssuerUnavailableException;
+import me.sonam.auth.service.TokenMediatorService;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Issuer timeouts, bulkhead rejections and the circuit breaker, driven with MockWebServer delays and errors.
+ */
+@EnableAutoConfiguration
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "issuer.resilience.attempt-timeout=PT1S",
+        "issuer.resilience.bulkhead.max-concurrent-calls=2",
+        "issuer.resilience.circuit-breaker.sliding-window-size=4",
+        "issuer.resilience.circuit-breaker.minimum-number-of-calls=4",
+        "issuer.resilience.circuit-breaker.wait-duration-in-open-state=PT30S",
+        "refresh-token-coalescing.enabled=false"})
+public class IssuerResilienceIntegTest {
+    private static final Logger LOG = LoggerFactory.getLogger(IssuerResilienceIntegTest.class);
+
+    private static final String CLIENT_ID = "resilience-client";
+    private static final String TOKEN_RESPONSE = "{\"access_token\":\"token\"}";
+
+    private static MockWebServer mockWebServer;
+
+    @Autowired
+    private WebTestClient webTestClient;
+
+    @MockBean
+    ReactiveJwtDecoder jwtDecoder;
+
+    @Autowired
+    private TokenMediatorService tokenMediatorService;
+
+    @Autowired
+    private IssuerResilience issuerResilience;
+
+    @BeforeAll
+    static void setupMockWebServer() throws IOException {
+        mockWebServer = new MockWebServer();
+        mockWebServer.start();
+    }
+
+    @AfterAll
+    public static void shutdownMockWebServer() throws IOException {
+        mockWebServer.shutdown();
+    }
+
+    @DynamicPropertySource
+    static void properties(DynamicPropertyRegistry r) {
+        r.add("authorization.root", () -> "http://localhost:" + mockWebServer.getPort());
+    }
+
+    @BeforeEach
+    public void saveClient() {
+        tokenMediatorService.saveClient(new Client(CLIENT_ID, "{noop}secret")).block();
+        issuerResilience.circuitBreaker().reset();
+    }
+
+    @Test
+    public void attemptTimeoutAnswersServiceUnavailable() {
+        mockWebServer.enqueue(new MockResponse().setHeader("Content-Type", "application/json")
+                .setBody(TOKEN_RESPONSE).setHeadersDelay(3, TimeUnit.SECONDS));
+
+        long start = System.nanoTime();
+        webTestClient.post().uri(tokenUri("authorization_code"))
+                .exchange().expectStatus().isEqualTo(HttpStatus.SERVICE_UNAVAILABLE)
+                .expectBody(Map.class).consumeWith(result ->
+                        assertThat(result.getResponseBody().get("error")).isEqualTo("temporarily_unavailable"));
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        LOG.info("timed out after {} ms", elapsedMillis);
+        assertThat(elapsedMillis).isLessThan(3000);
+    }
+
+    @Test
+    public void bulkheadRejectsCallsOverTheLimit() {
+        for (int i = 0; i < 2; i++) {
+            mockWebServer.enqueue(new MockResponse().setHeader("Content-Type", "application/json")
+                    .setBody(TOKEN_RESPONSE).setHeadersDelay(300, TimeUnit.MILLISECONDS));
+        }
+
+        List<String> results = Flux.range(0, 3)
+                .flatMap(i -> tokenMediatorService.getRefreshToken("refresh_token", "refresh-" + i, CLIENT_ID)
+                        .map(token -> "ok")
+                        .onErrorResume(IssuerUnavailableException.class, e -> Mono.just("rejected")))
+                .collectList().block();
+
+        assertThat(results).containsExactlyInAnyOrder("ok", "ok", "rejected");
+    }
+
+    @Test
+    public void circuitBreakerOpensOnIssuerErrors() {
+        for (int i = 0; i < 4; i++) {
+            mockWebServer.enqueue(new MockResponse().setResponseCode(500));
+        }
+        final int requestCount = mockWebServer.getRequestCount();
+
+        for (int i = 0; i < 4; i++) {
+            webTestClient.post().uri(tokenUri("authorization_code"))
+                    .exchange().expectStatus().isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+        }
+        // 5xx answers were sent to the issuer, they are not retried
+        assertThat(mockWebServer.getRequestCount()).isEqualTo(requestCount + 4);
+        assertThat(issuerResilience.circuitBreaker().getState()).isEqualTo(CircuitBreaker.State.OPEN);
+
+        webTestClient.post().uri(tokenUri("authorization_code"))
+                .exchange().expectStatus().isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+        assertThat(mockWebServer.getRequestCount()).isEqualTo(requestCount + 4);
+    }
+
+    @Test
+    public void issuerErrorsMapToOAuthErrors() {
+        mockWebServer.enqueue(new MockResponse().setResponseCode(400).setHeader("Content-Type", "application/json")
+                .setBody("{\"error\":\"invalid_grant\",\"error_description\":\"code expired\"}"));
+        webTestClient.post().uri(tokenUri("authorization_code"))
+                .exchange().expectStatus().isBadRequest()
+                .expectHeader().cacheControl(CacheControl.noStore())
+                .expectBody(String.class).isEqualTo("{\"error\":\"invalid_grant\"}");
+
+        LOG.info("the issuer's RFC 6749 error code is relayed");
+        mockWebServer.enqueue(new MockResponse().setResponseCode(400).setHeader("Content-Type", "application/json")
+                .setBody("{\"error\":\"invalid_scope\",\"error_description\":\"scope unknown\"}"));
+        webTestClient.post().uri(tokenUri("authorization_code"))
+                .exchange().expectStatus().isBadRequest()
+                .expectBody(String.class).isEqualTo("{\"error\":\"invalid_scope\"}");
+
+        mockWebServer.enqueue(new MockResponse().setResponseCode(403));
+        webTestClient.post().uri(tokenUri("authorization_code"))
+                .exchange().expectStatus().isBadRequest()
+                .expectBody(String.class).isEqualTo("{\"error\":\"invalid_request\"}");
+
+        mockWebServer.enqueue(new MockResponse().setResponseCode(401));
+        webTestClient.post().uri(tokenUri("authorization_code"))
+                .exchange().expectStatus().isUnauthorized()
+                .expectBody(String.class).isEqualTo("{\"error\":\"invalid_client\"}");
+
+        LOG.info("a request without grant_type is rejected without calling the issuer");
+        final int beforeMissingGrantType = mockWebServer.getRequestCount();
+        webTestClient.post().uri("/oauth2-token-mediator/token?client_id=" + CLIENT_ID)
+                .exchange().expectStatus().isBadRequest()
+                .expectBody(String.class).isEqualTo("{\"error\":\"invalid_request\"}");
+        assertThat(mockWebServer.getRequestCount()).isEqualTo(beforeMissingGrantType);
+
+        LOG.info("a refresh_token grant without refresh_token is rejected without calling the issuer");
+        webTestClient.post().uri(tokenUri("refresh_token"))
+                .exchange().expectStatus().isBadRequest()
+                .expectBody(String.class).isEqualTo("{\"error\":\"invalid_request\"}");
+        assertThat(mockWebServer.getRequestCount()).isEqualTo(beforeMissingGrantType);
+
+        LOG.info("a clientId that is not registered is rejected without calling the issuer");
+        final int requestCount = mockWebServer.getRequestCount();
+        webTestClient.post().uri(UriComponentsBuilder.fromUri(tokenUri("authorization_code"))
+                        .replaceQueryParam("client_id", "not-registered").build().toUri())
+                .exchange().expectStatus().isUnauthorized()
+                .expectBody(String.class).isEqualTo("{\"error\":\"invalid_client\"}");
+        assertThat(mockWebServer.getRequestCount()).isEqualTo(requestCount);
+    }
+
+    private URI tokenUri(String grantType) {
+        return UriComponentsBuilder.fromUriString("/oauth2-token-mediator/token")
+                .queryParam("client_id", CLIENT_ID)
+                .queryParam("grant_type", grantType)
+                .queryParam("redirect_uri", "http://127.0.0.1:8090/login/oauth2/code/articles-client-oidc")
+                .queryParam("code", "code")
+                .build().encode().toUri();
+    }
+}
@@ -1,6 +1,9 @@
 package me.sonam.auth;
 
 
+import io.micrometer.core.instrument.MeterRegistry;
+import me.sonam.auth.service.IssuerResilience;
+import me.sonam.auth.service.ReadinessMonitor;
 import org.junit.jupiter.api.Test;
 import org.junit.runner.RunWith;
 import org.slf4j.Logger;
@@ -13,6 +16,8 @@ import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.reactive.server.WebTestClient;
 
+import static org.assertj.core.api.Assertions.assertThat;
+
 /**
  * Test the liveness and readiness endpoints
  */
@@ -28,11 +33,59 @@ public class LivenessReadinessRestServiceIntegTest {
   @Autowired
   private WebTestClient client;
 
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @Autowired
+  private ReadinessMonitor readinessMonitor;
+
+  @Autowired
+  private IssuerResilience issuerResilience;
+
   @Test
   public void readiness() {
     LOG.info("check readiness endpoint");
     client.get().uri("/oauth2-token-mediator/api/health/readiness")
-            .exchange().expectStatus().isOk();
+            .exchange().expectStatus().isOk()
+            .expectBody()
+            .jsonPath("$.status").isEqualTo("UP")
+            .jsonPath("$.components.database.status").isEqualTo("UP")
+            .jsonPath("$.components.issuer.details.circuitBreaker").isEqualTo("CLOSED")
+            .jsonPath("$.components.caches.details.changeListener").isEqualTo("listening");
+  }
+
+  @Test
+  public void openIssuerCircuitBreakerKeepsReplicaReady() {
+    LOG.info("an open issuer circuit breaker is shared by all replicas, it is reported but the replica stays ready");
+    issuerResilience.circuitBreaker().transitionToForcedOpenState();
+    try {
+      readinessMonitor.check().block();
+      readinessMonitor.check().block();
+      client.get().uri("/oauth2-token-mediator/api/health/readiness")
+              .exchange().expectStatus().isOk()
+              .expectBody()
+              .jsonPath("$.status").isEqualTo("UP")
+              .jsonPath("$.components.issuer.status").isEqualTo("DEGRADED")
+              .jsonPath("$.components.issuer.details.circuitBreaker").isEqualTo("FORCED_OPEN")
+              .jsonPath("$.components.database.status").isEqualTo("UP");
+    }
+    finally {
+      issuerResilience.circuitBreaker().transitionToClosedState();
+    }
+
+    readinessMonitor.check().block();
+    client.get().uri("/oauth2-token-mediator/api/health/readiness")
+            .exchange().expectStatus().isOk()
+            .expectBody().jsonPath("$.components.issuer.status").isEqualTo("UP");
+  }
+
+  @Test
+  public void connectionPoolWarmedUpWithMetrics() {
+    LOG.info("the pool is warmed up before readiness and its acquire time and pending count are exported");
+    assertThat(meterRegistry.get("r2dbc.pool.allocated").gauge().value()).isGreaterThanOrEqualTo(2);
+    assertThat(meterRegistry.get("r2dbc.pool.pending").gauge().value()).isZero();
+    // the schema initializer acquired connections at startup
+    assertThat(meterRegistry.get("r2dbc.pool.acquire").tag("outcome", "success").timer().count()).isPositive();
   }
 
   @Test
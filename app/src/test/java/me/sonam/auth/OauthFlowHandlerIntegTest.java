@@ -1,7 +1,19 @@
 package me.sonam.auth;
 
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import me.sonam.auth.repo.ClientBatchRepository;
 import me.sonam.auth.repo.entity.Client;
+import me.sonam.auth.service.ClientChangedEvent;
+import me.sonam.auth.service.ClientCredentialCache;
+import me.sonam.auth.service.ClientImportResult;
+import me.sonam.auth.service.ClientKeyRotationJob;
+import me.sonam.auth.service.ClientLookupCache;
+import me.sonam.auth.service.ClientSecretCipher;
+import me.sonam.auth.service.RefreshTokenCoalescer;
+import me.sonam.auth.service.TokenMediatorService;
+import me.sonam.auth.service.UnknownClientException;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
 import okhttp3.mockwebserver.RecordedRequest;
@@ -19,10 +31,15 @@ import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMock
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.security.crypto.encrypt.Encryptors;
+import org.springframework.security.crypto.keygen.KeyGenerators;
 import org.springframework.security.oauth2.jwt.Jwt;
 import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
 import org.springframework.test.context.DynamicPropertyRegistry;
@@ -31,13 +48,18 @@ import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.reactive.server.EntityExchangeResult;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 
 import java.io.IOException;
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -64,6 +86,39 @@ public class OauthFlowHandlerIntegTest {
     @MockBean
     ReactiveJwtDecoder jwtDecoder;
 
+    @Autowired
+    private ClientCredentialCache clientCredentialCache;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private RefreshTokenCoalescer refreshTokenCoalescer;
+
+    @Autowired
+    private TokenMediatorService tokenMediatorService;
+
+    @Autowired
+    private DatabaseClient databaseClient;
+
+    @Autowired
+    private ClientKeyRotationJob clientKeyRotationJob;
+
+    @Autowired
+    private ClientLookupCache clientLookupCache;
+
+    @Autowired
+    private ClientBatchRepository clientBatchRepository;
+
+    @Autowired
+    private ClientSecretCipher clientSecretCipher;
+
+    @Autowired
+    private ApplicationEventPublisher applicationEventPublisher;
+
+    @Value("${password}")
+    private String password;
+
     @BeforeAll
     static void setupMockWebServer() throws IOException {
         mockWebServer = new MockWebServer();
@@ -134,11 +189,73 @@ public class OauthFlowHandlerIntegTest {
 
         RecordedRequest recordedRequest = mockWebServer.takeRequest();
         assertThat(recordedRequest.getMethod()).isEqualTo("POST");
-        assertThat(recordedRequest.getPath()).startsWith("/oauth2/token");
+        assertThat(recordedRequest.getPath()).isEqualTo("/oauth2/token");
+        assertThat(recordedRequest.getHeader(HttpHeaders.CONTENT_TYPE)).startsWith(MediaType.APPLICATION_FORM_URLENCODED_VALUE);
+        assertThat(recordedRequest.getBody().readUtf8()).isEqualTo("grant_type=authorization_code" +
+                "&redirect_uri=http%3A%2F%2F127.0.0.1%3A8090%2Flogin%2Foauth2%2Fcode%2Farticles-client-oidc" +
+                "&code=GieqKyXaViGHZcfX-cwobX9SHnwXTs_nXkjCDEwFiDLp6QBNtPFKIrsPKE_Lml3opmr60O65ixXtGppZ20L51tRGpS75g7qp55OXAyoUiGvv_M4GaDhhy9g2LAymgXKn" +
+                "&scope=message.read%20message.write");
 
         LOG.info("response from service is {}", responseSpec.expectBody(String.class).returnResult().getResponseBody());
     }
 
+    @Test
+    public void getAccessTokenPassthrough() throws Exception {
+        String clientId = saveClient();
+        final byte[] issuerBody = refreshTokenResource.getContentAsByteArray();
+
+        mockWebServer.enqueue(new MockResponse().setHeader("Content-Type", "application/json;charset=UTF-8")
+                .setResponseCode(200).setBody(refreshTokenResource.getContentAsString(StandardCharsets.UTF_8)));
+
+        URI uri = UriComponentsBuilder.fromUriString("/oauth2-token-mediator/token")
+                .queryParam("client_id", clientId)
+                .queryParam("grant_type", "authorization_code")
+                .queryParam("redirect_uri", "http://127.0.0.1:8090/login/oauth2/code/articles-client-oidc")
+                .queryParam("code", "passthrough-code")
+                .build().encode().toUri();
+
+        byte[] body = webTestClient.post().uri(uri)
+                .exchange().expectStatus().isOk()
+                .expectHeader().contentType("application/json;charset=UTF-8")
+                .expectHeader().cacheControl(CacheControl.noStore())
+                .expectBody(byte[].class).returnResult().getResponseBody();
+
+        mockWebServer.takeRequest();
+        assertThat(body).isEqualTo(issuerBody);
+
+        Timer issuerCall = meterRegistry.find("token.mediation.phase")
+                .tags("phase", "issuer_call", "grant_type", "authorization_code", "outcome", "success").timer();
+        assertThat(issuerCall).isNotNull();
+        assertThat(issuerCall.count()).isPositive();
+    }
+
+    @Test
+    public void cachedClientCredentials() throws Exception {
+        String clientId = saveClient();
+        final String basicAuth = "Basic " + Base64.getEncoder()
+                .encodeToString((clientId + ":secret").getBytes(StandardCharsets.UTF_8));
+        final long hitCount = clientCredentialCache.stats().hitCount();
+
+        for (int i = 0; i < 2; i++) {
+            mockWebServer.enqueue(new MockResponse().setHeader("Content-Type", "application/json;charset=UTF-8")
+                    .setResponseCode(200).setBody(refreshTokenResource.getContentAsString(StandardCharsets.UTF_8)));
+
+            URI uri = UriComponentsBuilder.fromUriString("/oauth2-token-mediator/token")
+                    .queryParam("client_id", clientId)
+                    .queryParam("grant_type", "authorization_code")
+                    .queryParam("redirect_uri", "http://127.0.0.1:8090/login/oauth2/code/articles-client-oidc")
+                    .queryParam("code", "code-" + i)
+                    .build().encode().toUri();
+            webTestClient.post().uri(uri).exchange().expectStatus().isOk();
+
+            RecordedRequest recordedRequest = mockWebServer.takeRequest();
+            assertThat(recordedRequest.getHeader(HttpHeaders.AUTHORIZATION)).isEqualTo(basicAuth);
+        }
+
+        LOG.info("client credential cache stats: {}", clientCredentialCache.stats());
+        assertThat(clientCredentialCache.stats().hitCount()).isEqualTo(hitCount + 1);
+    }
+
     private String saveClient() {
         final String authenticationId = "sonam";
         Jwt jwt = jwt(authenticationId);
@@ -194,6 +311,163 @@ public class OauthFlowHandlerIntegTest {
         assertThat(entityExchangeResult.getResponseBody().getClientSecret()).isNotEqualTo("{noop}secret");
         LOG.info("get client by clientId done");
     }
+    @Test
+    public void saveSameClientConcurrently() {
+        final String clientId = "concurrent-" + System.nanoTime();
+
+        StepVerifier.create(Flux.range(0, 8)
+                        .flatMap(i -> tokenMediatorService.saveClient(new Client(clientId, "{noop}secret-" + i))))
+                .expectNextCount(8)
+                .verifyComplete();
+
+        StepVerifier.create(tokenMediatorService.getClient(clientId))
+                .assertNext(client -> assertThat(client.getClientSecret()).startsWith("secret-"))
+                .verifyComplete();
+    }
+
+    @Test
+    public void upgradeLegacyClientSecretOnRead() {
+        final String clientId = "legacy-" + System.nanoTime();
+        final String salt = KeyGenerators.string().generateKey();
+        final String legacyClientSecret = Encryptors.text(password, salt).encrypt("secret");
+
+        databaseClient.sql("INSERT INTO Client (client_id, client_secret, salt) VALUES ($1, $2, $3)")
+                .bind(0, clientId).bind(1, legacyClientSecret).bind(2, salt)
+                .fetch().rowsUpdated().block();
+
+        StepVerifier.create(tokenMediatorService.getClient(clientId))
+                .assertNext(client -> assertThat(client.getClientSecret()).isEqualTo("secret"))
+                .verifyComplete();
+
+        Map<String, Object> row = databaseClient.sql("SELECT * FROM Client WHERE client_id = $1")
+                .bind(0, clientId).fetch().one().block();
+        assertThat(((Number) row.get("format_version")).intValue()).isEqualTo(ClientSecretCipher.FORMAT_GCM);
+        assertThat(row.get("salt")).isNull();
+        assertThat(row.get("client_secret")).isNotEqualTo(legacyClientSecret);
+
+        StepVerifier.create(tokenMediatorService.getClient(clientId))
+                .assertNext(client -> assertThat(client.getClientSecret()).isEqualTo("secret"))
+                .verifyComplete();
+    }
+
+    @Test
+    public void reEncryptWithPrimaryKey() {
+        final String clientId = "rotate-" + System.nanoTime();
+        ClientSecretCipher previousCipher = new ClientSecretCipher(password, "oauth2-token-mediator", "previous",
+                Map.of("previous", "previous-password"));
+        final String previousClientSecret = previousCipher.encrypt(clientId, "secret");
+
+        databaseClient.sql("INSERT INTO Client (client_id, client_secret, format_version, key_id) VALUES ($1, $2, $3, $4)")
+                .bind(0, clientId).bind(1, previousClientSecret).bind(2, ClientSecretCipher.FORMAT_GCM).bind(3, "previous")
+                .fetch().rowsUpdated().block();
+
+        LOG.info("start the rotation until a run picks up the row, it rewrites asynchronously");
+        StepVerifier.create(Mono.defer(() -> {
+                            clientKeyRotationJob.start();
+                            return databaseClient.sql("SELECT key_id FROM Client WHERE client_id = $1").bind(0, clientId)
+                                    .map(row -> row.get("key_id", String.class)).one();
+                        })
+                        .filter("default"::equals)
+                        .repeatWhenEmpty(100, repeat -> repeat.delayElements(Duration.ofMillis(100))))
+                .expectNext("default")
+                .verifyComplete();
+        assertThat(meterRegistry.get("client.secret.rotation.rewritten").counter().count()).isGreaterThanOrEqualTo(1);
+
+        StepVerifier.create(tokenMediatorService.getClient(clientId))
+                .assertNext(client -> assertThat(client.getClientSecret()).isEqualTo("secret"))
+                .verifyComplete();
+    }
+
+    @Test
+    public void conditionalGetClient() {
+        final String authenticationId = "sonam";
+        Jwt jwt = jwt(authenticationId);
+        when(this.jwtDecoder.decode(anyString())).thenReturn(Mono.just(jwt));
+
+        String clientId = saveClient();
+
+        String etag = webTestClient.get().uri("/oauth2-token-mediator/clients/" + clientId).headers(addJwt(jwt))
+                .exchange().expectStatus().isOk()
+                .expectHeader().exists(HttpHeaders.ETAG)
+                .returnResult(Client.class).getResponseHeaders().getETag();
+        final long hitCount = clientLookupCache.stats().hitCount();
+
+        webTestClient.get().uri("/oauth2-token-mediator/clients/" + clientId).headers(addJwt(jwt))
+                .header(HttpHeaders.IF_NONE_MATCH, etag)
+                .exchange().expectStatus().isNotModified()
+                .expectHeader().valueEquals(HttpHeaders.ETAG, etag)
+                .expectHeader().cacheControl(CacheControl.noCache().cachePrivate())
+                .expectBody().isEmpty();
+        assertThat(clientLookupCache.stats().hitCount()).isEqualTo(hitCount + 1);
+
+        LOG.info("saving the same client again keeps the etag");
+        saveClient();
+        webTestClient.get().uri("/oauth2-token-mediator/clients/" + clientId).headers(addJwt(jwt))
+                .header(HttpHeaders.IF_NONE_MATCH, etag)
+                .exchange().expectStatus().isNotModified();
+
+        LOG.info("a save that changes the client changes the etag");
+        Client changed = new Client(clientId, "{noop}secret");
+        changed.setRateLimit(10, 20);
+        StepVerifier.create(tokenMediatorService.saveClient(changed)).expectNext(1).verifyComplete();
+        webTestClient.get().uri("/oauth2-token-mediator/clients/" + clientId).headers(addJwt(jwt))
+                .header(HttpHeaders.IF_NONE_MATCH, etag)
+                .exchange().expectStatus().isOk()
+                .expectHeader().value(HttpHeaders.ETAG, newEtag -> assertThat(newEtag).isNotEqualTo(etag))
+                .expectBody(Client.class).value(client -> assertThat(client.getClientSecret()).isEqualTo("secret"));
+    }
+
+    @Test
+    public void evictClientChangedOnAnotherReplica() {
+        final String authenticationId = "sonam";
+        Jwt jwt = jwt(authenticationId);
+        when(this.jwtDecoder.decode(anyString())).thenReturn(Mono.just(jwt));
+
+        String clientId = saveClient();
+        webTestClient.get().uri("/oauth2-token-mediator/clients/" + clientId).headers(addJwt(jwt))
+                .exchange().expectStatus().isOk()
+                .expectBody(Client.class).value(client -> assertThat(client.getClientSecret()).isEqualTo("secret"));
+
+        LOG.info("another replica writes the row, this replica still serves its cached client");
+        new Client(clientId, "changed-secret").encryptClientSecret(clientSecretCipher)
+                .flatMap(client -> clientBatchRepository.upsert(client))
+                .as(StepVerifier::create).expectNext(clientId).verifyComplete();
+        webTestClient.get().uri("/oauth2-token-mediator/clients/" + clientId).headers(addJwt(jwt))
+                .exchange().expectStatus().isOk()
+                .expectBody(Client.class).value(client -> assertThat(client.getClientSecret()).isEqualTo("secret"));
+
+        LOG.info("the change notification received from the other replica evicts it");
+        applicationEventPublisher.publishEvent(ClientChangedEvent.saved(clientId));
+        webTestClient.get().uri("/oauth2-token-mediator/clients/" + clientId).headers(addJwt(jwt))
+                .exchange().expectStatus().isOk()
+                .expectBody(Client.class).value(client -> assertThat(client.getClientSecret()).isEqualTo("changed-secret"));
+    }
+
+    @Test
+    public void rejectUnknownClientInMemory() {
+        final String clientId = "unknown-" + System.nanoTime();
+        final double rejected = unknownClientRejected();
+
+        LOG.info("the first lookup of an unknown clientId reaches the database, the second does not");
+        for (int i = 0; i < 2; i++) {
+            StepVerifier.create(tokenMediatorService.getClient(clientId))
+                    .expectError(UnknownClientException.class)
+                    .verify();
+        }
+        assertThat(unknownClientRejected()).isEqualTo(rejected + 1);
+
+        LOG.info("saving the client makes it known again");
+        StepVerifier.create(tokenMediatorService.saveClient(new Client(clientId, "{noop}secret")))
+                .expectNext(1).verifyComplete();
+        StepVerifier.create(tokenMediatorService.getClient(clientId))
+                .assertNext(client -> assertThat(client.getClientSecret()).isEqualTo("secret"))
+                .verifyComplete();
+    }
+
+    private double unknownClientRejected() {
+        return meterRegistry.get("client.unknown.rejected").counter().count();
+    }
+
     @Test
     public void deleteClient() {
         LOG.info("delete client test");
@@ -213,9 +487,8 @@ public class OauthFlowHandlerIntegTest {
         LOG.info("verify client does not exist");
         webTestClient.get().uri("/oauth2-token-mediator/clients/"+clientId)
                 .headers(addJwt(jwt))
-                .exchange().expectStatus().isBadRequest().expectBody(Map.class).consumeWith(stringEntityExchangeResult -> {
-                    LOG.info("response: {}", stringEntityExchangeResult.getResponseBody().get("error"));
-                });
+                .exchange().expectStatus().isNotFound()
+                .expectBody(String.class).isEqualTo("{\"error\":\"not_found\"}");
 
     }
 
@@ -236,7 +509,9 @@ public class OauthFlowHandlerIntegTest {
                 .queryParam("refresh_token", oldRefreshToken)
                 .build().encode().toUri();
         WebTestClient.ResponseSpec responseSpec = webTestClient.post().uri(uri)
-                .exchange().expectStatus().isOk();
+                .exchange().expectStatus().isOk()
+                .expectHeader().cacheControl(CacheControl.noStore())
+                .expectHeader().valueEquals(HttpHeaders.PRAGMA, "no-cache");
 
         LOG.info("response from service is {}", responseSpec.expectBody(String.class).returnResult().getResponseBody());
 
@@ -245,6 +520,64 @@ public class OauthFlowHandlerIntegTest {
         assertThat(recordedRequest.getPath()).startsWith("/oauth2/token");
     }
 
+    @Test
+    public void coalesceConcurrentRefreshTokenRequests() throws Exception {
+        final String refreshToken = "coalesce-" + System.nanoTime();
+        String clientId = saveClient();
+
+        mockWebServer.enqueue(new MockResponse().setHeader("Content-Type", "application/json;charset=UTF-8")
+                .setResponseCode(200).setBody(refreshTokenResource.getContentAsString(StandardCharsets.UTF_8))
+                .setBodyDelay(300, TimeUnit.MILLISECONDS));
+        final int requestCount = mockWebServer.getRequestCount();
+        final double collapsedCount = refreshTokenCoalescer.collapsedCount();
+
+        StepVerifier.create(Flux.range(0, 3)
+                        .flatMap(i -> tokenMediatorService.getRefreshToken("refresh_token", refreshToken, clientId))
+                        .distinct())
+                .expectNext(refreshTokenResource.getContentAsString(StandardCharsets.UTF_8))
+                .verifyComplete();
+
+        RecordedRequest recordedRequest = mockWebServer.takeRequest();
+        assertThat(recordedRequest.getPath()).startsWith("/oauth2/token");
+        assertThat(mockWebServer.getRequestCount()).isEqualTo(requestCount + 1);
+        assertThat(refreshTokenCoalescer.collapsedCount()).isEqualTo(collapsedCount + 2);
+    }
+
+    @Test
+    public void importAndExportClients() {
+        final String authenticationId = "sonam";
+        Jwt jwt = jwt(authenticationId);
+        when(this.jwtDecoder.decode(anyString())).thenReturn(Mono.just(jwt));
+
+        final int count = 2000;
+        final String prefix = "bulk-" + System.nanoTime() + "-";
+        Flux<Client> clients = Flux.range(0, count).map(i -> new Client(prefix + i, "{noop}secret-" + i));
+
+        long start = System.nanoTime();
+        List<ClientImportResult> results = webTestClient.post().uri("/oauth2-token-mediator/clients")
+                .headers(addJwt(jwt)).contentType(MediaType.APPLICATION_NDJSON).accept(MediaType.APPLICATION_NDJSON)
+                .body(clients, Client.class)
+                .exchange().expectStatus().isOk()
+                .returnResult(ClientImportResult.class).getResponseBody().collectList().block();
+        long elapsedMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        LOG.info("imported {} clients in {} ms, {} clients/s", count, elapsedMillis, count * 1000L / elapsedMillis);
+
+        assertThat(results).hasSize(count);
+        assertThat(results).allMatch(result -> result.status().equals("saved"));
+        assertThat(results.get(0).clientId()).isEqualTo(prefix + 0);
+
+        List<Client> exported = webTestClient.get().uri("/oauth2-token-mediator/clients")
+                .headers(addJwt(jwt)).accept(MediaType.APPLICATION_NDJSON)
+                .exchange().expectStatus().isOk()
+                .returnResult(Client.class).getResponseBody()
+                .filter(client -> client.getClientId().startsWith(prefix))
+                .collectList().block();
+
+        assertThat(exported).hasSize(count);
+        assertThat(exported).allMatch(client -> client.getClientSecret().equals(
+                "secret-" + client.getClientId().substring(prefix.length())));
+    }
+
     private Jwt jwt(String subjectName) {
         return new Jwt("token", null, null,
                 Map.of("alg", "none"), Map.of("sub", subjectName));
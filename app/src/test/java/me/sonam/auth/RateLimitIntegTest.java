@@ -0,0 +1,89 @@
+package me.sonam.auth;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import me.sonam.auth.repo.entity.Client;
+import me.sonam.auth.service.TokenMediatorService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Per client_id token bucket limits on the authorize route, with the default limit and a client's own limit.
+ */
+@EnableAutoConfiguration
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "rate-limit.client.per-second=1",
+        "rate-limit.client.burst=2"})
+public class RateLimitIntegTest {
+    private static final Logger LOG = LoggerFactory.getLogger(RateLimitIntegTest.class);
+
+    @Autowired
+    private WebTestClient webTestClient;
+
+    @MockBean
+    ReactiveJwtDecoder jwtDecoder;
+
+    @Autowired
+    private TokenMediatorService tokenMediatorService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    /**
+     * the buckets refill one token a second, the first request of a test must not be slowed by a cold route
+     */
+    @BeforeEach
+    public void warmUp() {
+        authorize("warm-up-" + System.nanoTime()).expectStatus().isTemporaryRedirect();
+    }
+
+    @Test
+    public void defaultClientLimit() {
+        final double rejected = meterRegistry.get("rate_limit.rejected").tag("key", "client").counter().count();
+
+        authorize("unregistered-client").expectStatus().isTemporaryRedirect();
+        authorize("unregistered-client").expectStatus().isTemporaryRedirect();
+
+        LOG.info("the third request within the second is over the burst of 2");
+        authorize("unregistered-client").expectStatus().isEqualTo(429)
+                .expectHeader().valueEquals(HttpHeaders.RETRY_AFTER, "1")
+                .expectBody().jsonPath("$.error").isEqualTo("too_many_requests");
+        assertThat(meterRegistry.get("rate_limit.rejected").tag("key", "client").counter().count())
+                .isEqualTo(rejected + 1);
+
+        LOG.info("other clients have their own bucket");
+        authorize("other-client").expectStatus().isTemporaryRedirect();
+    }
+
+    @Test
+    public void clientOwnLimit() {
+        Client client = new Client("bursty-client", "{noop}secret");
+        client.setRateLimit(1, 5);
+        tokenMediatorService.saveClient(client).block();
+
+        for (int i = 0; i < 5; i++) {
+            authorize("bursty-client").expectStatus().isTemporaryRedirect();
+        }
+        authorize("bursty-client").expectStatus().isEqualTo(429)
+                .expectHeader().exists(HttpHeaders.RETRY_AFTER);
+    }
+
+    private WebTestClient.ResponseSpec authorize(String clientId) {
+        return webTestClient.get().uri("/oauth2-token-mediator/authorize?response_type=code&client_id=" + clientId +
+                        "&scope=openid&redirect_uri=http://127.0.0.1:8090/login/oauth2/code/articles-client-oidc&state=s")
+                .exchange();
+    }
+}
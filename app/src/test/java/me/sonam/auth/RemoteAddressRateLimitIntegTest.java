@@ -0,0 +1,69 @@
+package me.sonam.auth;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Per remote address limits behind a trusted proxy: the tests connect from loopback like the api-gateway would
+ * and name the caller in X-Forwarded-For.
+ */
+@EnableAutoConfiguration
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "rate-limit.ip.per-second=1",
+        "rate-limit.ip.burst=2",
+        "rate-limit.trusted-proxies=127.0.0.1,::1"})
+public class RemoteAddressRateLimitIntegTest {
+    private static final Logger LOG = LoggerFactory.getLogger(RemoteAddressRateLimitIntegTest.class);
+
+    @Autowired
+    private WebTestClient webTestClient;
+
+    @MockBean
+    ReactiveJwtDecoder jwtDecoder;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Test
+    public void forwardedClientAddressLimit() {
+        // a cold route must not slow the requests below past a refill
+        authorize("192.0.2.1").expectStatus().isTemporaryRedirect();
+        final double rejected = meterRegistry.get("rate_limit.rejected").tag("key", "ip").counter().count();
+
+        authorize("203.0.113.7").expectStatus().isTemporaryRedirect();
+        authorize("203.0.113.7").expectStatus().isTemporaryRedirect();
+
+        LOG.info("the third request of the same caller within the second is over the burst of 2");
+        authorize("203.0.113.7").expectStatus().isEqualTo(429)
+                .expectBody().jsonPath("$.error").isEqualTo("too_many_requests");
+        assertThat(meterRegistry.get("rate_limit.rejected").tag("key", "ip").counter().count())
+                .isEqualTo(rejected + 1);
+
+        LOG.info("a hop the caller prepended does not get it a new bucket");
+        authorize("198.51.100.1, 203.0.113.7").expectStatus().isEqualTo(429);
+
+        LOG.info("other callers behind the same proxy have their own bucket");
+        authorize("203.0.113.8").expectStatus().isTemporaryRedirect();
+    }
+
+    private WebTestClient.ResponseSpec authorize(String forwardedFor) {
+        return webTestClient.get().uri("/oauth2-token-mediator/authorize?response_type=code&client_id=ip-client-" +
+                        System.nanoTime() + "&scope=openid&redirect_uri=http://127.0.0.1:8090/login/oauth2/code/" +
+                        "articles-client-oidc&state=s")
+                .header("X-Forwarded-For", forwardedFor)
+                .exchange();
+    }
+}
@@ -0,0 +1,91 @@
+package me.sonam.auth.harness;
+
+import me.sonam.auth.Application;
+import me.sonam.auth.repo.entity.Client;
+import me.sonam.auth.service.TokenMediatorService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Starts the token-mediator in this jvm against an in-memory H2 database and a {@link StubIssuer},
+ * so benchmarks and load tests can drive the real routes without Postgres, Eureka or Kubernetes.
+ */
+public class InProcessMediator implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(InProcessMediator.class);
+
+    public static final String CLIENT_ID = "benchmark-client";
+    public static final String CLIENT_SECRET = "secret";
+
+    private final ConfigurableApplicationContext context;
+
+    private InProcessMediator(ConfigurableApplicationContext context) {
+        this.context = context;
+    }
+
+    /**
+     * @param issuerRoot root uri of the issuer, usually {@link StubIssuer#rootUri()}
+     * @param args additional command line style properties, e.g. "--token-response.passthrough=false"
+     */
+    public static InProcessMediator start(String issuerRoot, String... args) {
+        return start(0, issuerRoot, args);
+    }
+
+    /**
+     * @param port the server port, 0 for a random one
+     */
+    public static InProcessMediator start(int port, String issuerRoot, String... args) {
+        List<String> arguments = new ArrayList<>(List.of(
+                "--server.port=" + port,
+                "--SERVER_PORT=" + port,
+                "--ISSUER_URI=" + issuerRoot,
+                "--OAUTH_AUDIENCES=oauth-client",
+                "--spring.security.oauth2.resourceserver.jwt.jwk-set-uri=" + issuerRoot + "/.well-known/jwks.json",
+                "--spring.r2dbc.url=r2dbc:h2:mem:///token-mediator-harness?options=DB_CLOSE_DELAY=-1",
+                "--spring.r2dbc.username=sa",
+                "--spring.r2dbc.password=",
+                "--password=harness-password",
+                "--eureka.client.enabled=false",
+                // benchmarks and load tests drive one client from one address far above the rate limits
+                "--rate-limit.enabled=false",
+                "--spring.cloud.kubernetes.enabled=false",
+                "--spring.cloud.kubernetes.discovery.enabled=false"));
+        arguments.addAll(Arrays.asList(args));
+
+        ConfigurableApplicationContext context = SpringApplication.run(Application.class,
+                arguments.toArray(String[]::new));
+        InProcessMediator mediator = new InProcessMediator(context);
+        LOG.info("token-mediator started on port {}", mediator.port());
+        return mediator;
+    }
+
+    public int port() {
+        return Integer.parseInt(context.getEnvironment().getRequiredProperty("local.server.port"));
+    }
+
+    public String baseUri() {
+        return "http://localhost:" + port();
+    }
+
+    public <T> T getBean(Class<T> type) {
+        return context.getBean(type);
+    }
+
+    /**
+     * registers {@link #CLIENT_ID} directly through the service so no jwt is needed
+     */
+    public InProcessMediator withClient() {
+        getBean(TokenMediatorService.class).saveClient(new Client(CLIENT_ID, "{noop}" + CLIENT_SECRET)).block();
+        return this;
+    }
+
+    @Override
+    public void close() {
+        context.close();
+    }
+}
@@ -0,0 +1,76 @@
+package me.sonam.auth.harness;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A local stand-in for the authorization server token endpoint used by the benchmarks and load tests.
+ * Every POST to /oauth2/token is answered with the canned token response, optionally after a fixed latency
+ * and with a share of requests failing with a 500 to inject issuer errors.
+ */
+public class StubIssuer implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(StubIssuer.class);
+
+    private static final byte[] ERROR_RESPONSE = "{\"error\":\"server_error\"}".getBytes(StandardCharsets.UTF_8);
+
+    private final byte[] tokenResponse;
+    private final DisposableServer server;
+
+    public StubIssuer() {
+        this(Duration.ZERO, 0);
+    }
+
+    /**
+     * @param latency delay before each response is written
+     * @param errorRate share of requests, 0 to 1, answered with a 500
+     */
+    public StubIssuer(Duration latency, double errorRate) {
+        this.tokenResponse = tokenResponse();
+        this.server = HttpServer.create()
+                .host("localhost")
+                .port(0)
+                .route(routes -> routes
+                        .post("/oauth2/token", (request, response) -> request.receive().then()
+                                .then(latency.isZero() ? Mono.empty() : Mono.delay(latency).then())
+                                .then(Mono.defer(() -> {
+                                    boolean fail = errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate;
+                                    return response.status(fail ? 500 : 200)
+                                            .header("Content-Type", "application/json;charset=UTF-8")
+                                            .sendByteArray(Mono.just(fail ? ERROR_RESPONSE : tokenResponse)).then();
+                                }))))
+                .bindNow();
+        LOG.info("stub issuer listening on {} with latency {} and error rate {}", rootUri(), latency, errorRate);
+    }
+
+    public String rootUri() {
+        return "http://localhost:" + server.port();
+    }
+
+    public byte[] getTokenResponse() {
+        return tokenResponse;
+    }
+
+    @Override
+    public void close() {
+        server.disposeNow();
+    }
+
+    private static byte[] tokenResponse() {
+        try (InputStream inputStream = StubIssuer.class.getResourceAsStream("/stub-issuer/token-response.json")) {
+            return inputStream.readAllBytes();
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}